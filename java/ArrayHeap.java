@@ -2,6 +2,8 @@
  * Created by parisl on 4/17/17.
  */
 
+import java.util.HashMap;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -14,6 +16,8 @@ import static org.junit.Assert.*;
 public class ArrayHeap<T> implements ExtrinsicPQ<T> {
     private Node[] contents;
     private int size;
+    /* Index of each item in contents, so changePriority need not scan the heap. */
+    private HashMap<T, Integer> indices;
 
     public ArrayHeap() {
         contents = new ArrayHeap.Node[16];
@@ -25,6 +29,7 @@ public class ArrayHeap<T> implements ExtrinsicPQ<T> {
     /* Even though there is an empty spot at the front, we still consider
      * the size to be 0 since nothing has been inserted yet. */
         size = 0;
+        indices = new HashMap<>();
     }
 
     /**
@@ -77,6 +82,8 @@ public class ArrayHeap<T> implements ExtrinsicPQ<T> {
         Node node2 = getNode(index2);
         contents[index1] = node2;
         contents[index2] = node1;
+        indices.put(node2.myItem, index1);
+        indices.put(node1.myItem, index2);
     }
 
 
@@ -166,6 +173,7 @@ public class ArrayHeap<T> implements ExtrinsicPQ<T> {
         Node newNode = new ArrayHeap.Node(item, priority);
         contents[size + 1] = newNode;
         size += 1;
+        indices.put(item, size);
 
         swim(size);
 
@@ -196,6 +204,10 @@ public class ArrayHeap<T> implements ExtrinsicPQ<T> {
         contents[1] = node2;
         contents[size] = null;
         size -= 1;
+        indices.remove(node1.myItem);
+        if (size > 0) {
+            indices.put(node2.myItem, 1);
+        }
 
         sink(1);
 
@@ -219,29 +231,30 @@ public class ArrayHeap<T> implements ExtrinsicPQ<T> {
     /**
      * Change the node in this heap with the given item to have the given
      * priority. You can assume the heap will not have two nodes with the same
-     * item. Check item equality with .equals(), not ==. This is a challenging
+     * item. Check item equality with .equals(), not ==. The item is found through the
+     * index map rather than by scanning the heap, so this is O(log n). This is a challenging
      * bonus problem, but shouldn't be too hard if you really understand heaps
      * and think about the algorithm before you start to code.
      */
     @Override
     public void changePriority(T item, double priority) {
-        for (int i = 1; i <= size; i++) {
-            if (item.equals(getNode(i).myItem)) {
-                getNode(i).myPriority = priority;
-
-                int parentIndex = ArrayHeap.parentIndex(i);
-                if (i == 1) {
-                    sink(i);
-                } else if (i == size) {
-                    swim(i);
-                } else {
-                    if (min(parentIndex, i) == parentIndex) {
-                        sink(i);
-                    } else {
-                        swim(i);
-                    }
-                }
-                break;
+        Integer index = indices.get(item);
+        if (index == null) {
+            return;
+        }
+        int i = index;
+        getNode(i).myPriority = priority;
+
+        int parentIndex = ArrayHeap.parentIndex(i);
+        if (i == 1) {
+            sink(i);
+        } else if (i == size) {
+            swim(i);
+        } else {
+            if (min(parentIndex, i) == parentIndex) {
+                sink(i);
+            } else {
+                swim(i);
             }
         }
     }
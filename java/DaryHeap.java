@@ -0,0 +1,136 @@
+/**
+ * d-ary min-heap of int items in the range [0, capacity) with double priorities, stored in
+ * parallel primitive arrays with a position map like IndexedMinHeap. A wider node makes the
+ * heap shallower, so the sift-ups done by changePriority touch fewer cache lines, at the
+ * price of comparing d children on each sift-down step. Both sifts are iterative.
+ */
+class DaryHeap implements IndexedPQ {
+    private final int d;
+    /** items[0..size - 1] is the heap; the children of slot i are d * i + 1 to d * i + d. */
+    private final int[] items;
+    private final double[] priorities;
+    /** position[item] is one more than the heap slot of item, or 0 if it is not in the heap. */
+    private final int[] position;
+    private int size;
+
+    DaryHeap(int d, int capacity) {
+        if (d < 2) {
+            throw new IllegalArgumentException("A d-ary heap needs d of at least 2.");
+        }
+        this.d = d;
+        items = new int[capacity];
+        priorities = new double[capacity];
+        position = new int[capacity];
+        size = 0;
+    }
+
+    @Override
+    public void insert(int item, double priority) {
+        size += 1;
+        swim(size - 1, item, priority);
+    }
+
+    @Override
+    public int peek() {
+        return items[0];
+    }
+
+    @Override
+    public int removeMin() {
+        int min = items[0];
+        position[min] = 0;
+        size -= 1;
+        if (size > 0) {
+            sink(0, items[size], priorities[size]);
+        }
+        return min;
+    }
+
+    @Override
+    public void changePriority(int item, double priority) {
+        int i = position[item] - 1;
+        if (priority < priorities[i]) {
+            swim(i, item, priority);
+        } else {
+            sink(i, item, priority);
+        }
+    }
+
+    @Override
+    public void insertOrDecrease(int item, double priority) {
+        if (position[item] == 0) {
+            insert(item, priority);
+        } else if (priority < priorities[position[item] - 1]) {
+            swim(position[item] - 1, item, priority);
+        }
+    }
+
+    @Override
+    public boolean contains(int item) {
+        return position[item] != 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[items[i]] = 0;
+        }
+        size = 0;
+    }
+
+    /** Moves item up from the hole at slot i to its place and stores it there. */
+    private void swim(int i, int item, double priority) {
+        while (i > 0) {
+            int parent = (i - 1) / d;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        place(item, priority, i);
+    }
+
+    /** Moves item down from the hole at slot i to its place and stores it there. */
+    private void sink(int i, int item, double priority) {
+        while (true) {
+            int first = d * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + d, size);
+            int child = first;
+            double childPriority = priorities[first];
+            for (int c = first + 1; c < last; c++) {
+                if (priorities[c] < childPriority) {
+                    child = c;
+                    childPriority = priorities[c];
+                }
+            }
+            if (priority <= childPriority) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        place(item, priority, i);
+    }
+
+    /** Moves the entry in slot from into slot to. */
+    private void move(int from, int to) {
+        items[to] = items[from];
+        priorities[to] = priorities[from];
+        position[items[to]] = to + 1;
+    }
+
+    private void place(int item, double priority, int i) {
+        items[i] = item;
+        priorities[i] = priority;
+        position[item] = i + 1;
+    }
+}
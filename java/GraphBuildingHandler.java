@@ -2,9 +2,6 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.ArrayList;
 
 /**
@@ -27,21 +24,19 @@ import java.util.ArrayList;
  *  @author Alan Yao, Maurice Lee
  */
 public class GraphBuildingHandler extends DefaultHandler {
-    /**
-     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
-     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
-     * roads, but in practice we walk all over them with such impunity that we forget cars can
-     * actually drive on them.
-     */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
-            ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
-                    "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
-                    "secondary_link", "tertiary_link"));
+    private static final float KMH_PER_MPH = 1.609344f;
     private String activeState = "";
     private final GraphDB g;
     private ArrayList<Long> ways;
     private long lastNode;
     private boolean validWay;
+    private Highway highway;
+    private float maxSpeed;
+    /** 1 if the current way is one-way in node order, -1 if against it, 0 if two-way. */
+    private int oneway;
+    private boolean accessNo;
+    private String motorAccess;
+    private String footAccess;
 
     public GraphBuildingHandler(GraphDB g) {
         this.g = g;
@@ -106,16 +101,31 @@ public class GraphBuildingHandler extends DefaultHandler {
             String k = attributes.getValue("k");
             String v = attributes.getValue("v");
             if (k.equals("maxspeed")) {
-               // System.out.println("Max Speed: " + v);
-                /* TODO set the max speed of the "current way" here. */
-                //g.addExtraInfo(lastNode, k, v);
+                maxSpeed = parseSpeed(v);
+            } else if (k.equals("oneway")) {
+                if (v.equals("yes") || v.equals("true") || v.equals("1")) {
+                    oneway = 1;
+                } else if (v.equals("-1") || v.equals("reverse")) {
+                    oneway = -1;
+                }
+            } else if (k.equals("junction") && v.equals("roundabout")) {
+                /* Roundabouts are one-way even when not tagged as such. */
+                if (oneway == 0) {
+                    oneway = 1;
+                }
+            } else if (k.equals("access")) {
+                accessNo = v.equals("no") || v.equals("private");
+            } else if (k.equals("motor_vehicle") || k.equals("motorcar")) {
+                motorAccess = v;
+            } else if (k.equals("foot")) {
+                footAccess = v;
             } else if (k.equals("highway")) {
                 //System.out.println("Highway type: " + v);
                 /* TODO Figure out whether this way and its connections are valid. */
                 /* Hint: Setting a "flag" is good enough! */
-                if (ALLOWED_HIGHWAY_TYPES.contains(v)) {
-                    validWay = true;
-                }
+                /* Keep every way some RoutingProfile can use; each profile picks its own. */
+                highway = Highway.parse(v);
+                validWay = highway != null;
             } else if (k.equals("name")) {
                // System.out.println("Way Name: " + v);
                 //g.addName(v);
@@ -130,8 +140,9 @@ public class GraphBuildingHandler extends DefaultHandler {
             node this tag belongs to. Remember XML is parsed top-to-bottom, so probably it's the
             last node that you looked at (check the first if-case). */
             //System.out.println("Node's name: " + attributes.getValue("v"));
-            g.addName(attributes.getValue("v"));
-            g.addExtraInfo(lastNode, attributes.getValue("v"));
+            String name = attributes.getValue("v");
+            g.addName(name);
+            g.addExtraInfo(lastNode, name);
         }
     }
 
@@ -154,13 +165,60 @@ public class GraphBuildingHandler extends DefaultHandler {
             chance to actually connect the nodes together if the way is valid. */
 //            System.out.println("Finishing a way...");
             if (validWay) {
-                g.addWays(ways);
+                float speed = maxSpeed > 0 ? maxSpeed : highway.defaultSpeed;
+                int flags = highway.ordinal();
+                if (denies(motorAccess)) {
+                    flags |= GraphDB.NO_MOTOR;
+                }
+                if (denies(footAccess)) {
+                    flags |= GraphDB.NO_FOOT;
+                }
+                g.addWays(ways, speed, flags, oneway);
             }
             validWay = false;
+            highway = null;
+            maxSpeed = 0;
+            oneway = 0;
+            accessNo = false;
+            motorAccess = null;
+            footAccess = null;
             ways = new ArrayList<>();
         }
 
 
     }
 
+    /**
+     * Whether a mode-specific access tag value, or the general access tag if there is none,
+     * forbids that mode on the current way.
+     */
+    private boolean denies(String modeAccess) {
+        if (modeAccess == null) {
+            return accessNo;
+        }
+        return modeAccess.equals("no") || modeAccess.equals("private");
+    }
+
+    /**
+     * Parses an OSM maxspeed value such as "25 mph", "50" or "50 km/h" into km/h.
+     * @param v The tag value.
+     * @return The speed in km/h, or 0 if the value has no leading number (e.g. "signals").
+     */
+    static float parseSpeed(String v) {
+        int end = 0;
+        while (end < v.length() && (Character.isDigit(v.charAt(end)) || v.charAt(end) == '.')) {
+            end += 1;
+        }
+        if (end == 0) {
+            return 0;
+        }
+        float speed;
+        try {
+            speed = Float.parseFloat(v.substring(0, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return v.contains("mph") ? speed * KMH_PER_MPH : speed;
+    }
+
 }
@@ -9,6 +9,10 @@ import java.util.Map;
 import java.util.LinkedList;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
@@ -17,16 +21,81 @@ import java.util.ArrayList;
  * methods. You'll also need to include instance variables and methods for
  * modifying the graph (e.g. addNode and addEdge).
  *
+ * The graph is only modified while the constructor parses the XML file. Once constructed
+ * it is effectively immutable, so a single instance is shared by all request threads.
+ *
+ * Edges are directed. Every road between v and w is stored once as an edge out of v and
+ * once as an edge out of w, and an edge against a one-way road is flagged AGAINST_ONEWAY
+ * rather than left out, so the adjacency arrays serve both forward searches (following
+ * edges out of a vertex) and backward searches (following the roads into a vertex, whose
+ * weights Weights.reverse holds at the paired edge's position).
+ *
+ * Most vertices are shape points of a way, with exactly two neighbors. Searches skip them:
+ * every other vertex is a junction, and the run of edges from a junction through shape
+ * points to the next junction is a chain, stored as one weighted edge between the two
+ * junctions. A chain's geometry is not copied; it is the path of edges that leaves the
+ * junction by the chain's first edge, which nextEdge follows through the shape points.
+ *
+ * Points are snapped onto the roads themselves rather than onto their vertices: a
+ * SegmentIndex over the roads finds the one nearest to a point, and snap returns the
+ * Position on it, a fraction of the way along one of its edges.
+ *
  * @author Alan Yao, Josh Hug
  */
 public class GraphDB {
     /** Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Edge, etc. */
-    private HashMap<Long, LinkedList<GraphDB.Node>> adj;
-    private HashMap<Long, GraphDB.Node> vertices;
-    private TrieST<String> names;
-    private HashMap<Long, GraphDB.Node> verticesWithNames;
-    private HashMap<String, LinkedList<Long>> nodeWithNames;
+    /** Bits of an edge's flags holding the ordinal of its way's Highway type. */
+    static final int HIGHWAY_MASK = 0x1f;
+    /** Edge flag: the edge runs against the direction of a one-way way. */
+    static final int AGAINST_ONEWAY = 0x20;
+    /** Edge flag: motor vehicles may not use the edge. */
+    static final int NO_MOTOR = 0x40;
+    /** Edge flag: pedestrians may not use the edge. */
+    static final int NO_FOOT = 0x80;
+    /** Source of graph versions; every GraphDB built gets the next one. */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    /** How much closer a road must be to be snapped to over the largest component. */
+    static final double SNAP_SLACK_METERS = 50;
+    /** Mean radius of the Earth, used for haversine edge lengths. */
+    static final double EARTH_RADIUS_METERS = 6371000;
+    /* Adjacency as parsed, dropped once buildIndex has packed it into the arrays below. */
+    private HashMap<Long, LinkedList<GraphDB.Edge>> adj;
+    private final HashMap<Long, GraphDB.Node> vertices;
+    private final TrieST<String> names;
+    private final HashMap<Long, GraphDB.Node> verticesWithNames;
+    private final HashMap<String, LinkedList<Long>> nodeWithNames;
+    private HashMap<String, String> stringPool;
+    /* Dense view of the cleaned graph used by searches: vertex v in [0, size()) has OSM id
+     * ids[v], and its neighbors are adjTo[adjStart[v]] to adjTo[adjStart[v + 1] - 1].
+     * Edge e is lengths[e] meters long, takes times[e] seconds at the road's speed and has
+     * attribute bits flags[e]. profileWeights[p] holds the weights of RoutingProfile p.
+     * xs, ys and zs place each vertex on a sphere of the Earth's radius. The chains out of
+     * junction v are chainStart[v] to chainStart[v + 1] - 1; chain c leads to junction
+     * chainTo[c] and starts with edge chainFirst[c]. Road segment i of the segment index is
+     * stored as edge segmentEdges[i] out of its lower-numbered end segmentFrom[i]. */
+    private HashMap<Long, Integer> indices;
+    private long[] ids;
+    private double[] lons;
+    private double[] lats;
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private int[] adjStart;
+    private int[] adjTo;
+    private float[] lengths;
+    private float[] times;
+    private byte[] flags;
+    private boolean[] junctions;
+    private int numJunctions;
+    private int[] chainStart;
+    private int[] chainTo;
+    private int[] chainFirst;
+    private int[] segmentFrom;
+    private int[] segmentEdges;
+    private SegmentIndex segments;
+    private Weights[] profileWeights;
+    private final long version;
     /**
      * Example constructor shows how to create and start an XML parser.
      * You do not need to modify this constructor, but you're welcome to do so.
@@ -38,6 +107,8 @@ public class GraphDB {
         names = new TrieST<>();
         nodeWithNames = new HashMap<>();
         verticesWithNames = new HashMap<>();
+        stringPool = new HashMap<>();
+        version = VERSIONS.incrementAndGet();
         try {
             File inputFile = new File(dbPath);
             SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -48,6 +119,9 @@ public class GraphDB {
             e.printStackTrace();
         }
         clean();
+        stringPool = null;
+        buildIndex();
+        adj = null;
     }
 
     /**
@@ -56,8 +130,37 @@ public class GraphDB {
      * @return Cleaned string.
      */
     static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+        char[] buf = null;
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            boolean keep = (c >= 'a' && c <= 'z') || c == ' ';
+            if (buf == null) {
+                if (keep) {
+                    continue;
+                }
+                /* First character that changes; copy the untouched prefix once. */
+                buf = new char[s.length()];
+                s.getChars(0, i, buf, 0);
+                len = i;
+            }
+            if (keep) {
+                buf[len++] = c;
+            } else if (c >= 'A' && c <= 'Z') {
+                buf[len++] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return buf == null ? s : new String(buf, 0, len);
+    }
 
+    /**
+     * Returns the canonical copy of s, so that a name shared by many nodes is only stored once.
+     * @param s Input string.
+     * @return Pooled string equal to s.
+     */
+    private String pooled(String s) {
+        String canonical = stringPool.putIfAbsent(s, s);
+        return canonical == null ? s : canonical;
     }
 
     /**
@@ -68,7 +171,7 @@ public class GraphDB {
     private void clean() {
         // Your code here.
         LinkedList<Long> removeKeys = new LinkedList<>();
-        for (Map.Entry<Long, LinkedList<GraphDB.Node>> entry : adj.entrySet()) {
+        for (Map.Entry<Long, LinkedList<GraphDB.Edge>> entry : adj.entrySet()) {
             if (entry.getValue().size() == 0) {
                 long key = entry.getKey();
                 removeKeys.addLast(key);
@@ -81,28 +184,207 @@ public class GraphDB {
 
     }
 
-    void addEdge(long v, long w) {
-        adj.get(v).addLast(vertices.get(w));
-        adj.get(w).addLast(vertices.get(v));
+    /** Numbers the remaining vertices densely and packs their adjacency into arrays. */
+    private void buildIndex() {
+        int n = vertices.size();
+        indices = new HashMap<>(n * 2);
+        ids = new long[n];
+        lons = new double[n];
+        lats = new double[n];
+        xs = new double[n];
+        ys = new double[n];
+        zs = new double[n];
+        adjStart = new int[n + 1];
+        int v = 0;
+        int numEdges = 0;
+        for (GraphDB.Node node : vertices.values()) {
+            indices.put(node.id, v);
+            ids[v] = node.id;
+            lons[v] = node.lon;
+            lats[v] = node.lat;
+            double phi = Math.toRadians(node.lat);
+            double lambda = Math.toRadians(node.lon);
+            xs[v] = EARTH_RADIUS_METERS * Math.cos(phi) * Math.cos(lambda);
+            ys[v] = EARTH_RADIUS_METERS * Math.cos(phi) * Math.sin(lambda);
+            zs[v] = EARTH_RADIUS_METERS * Math.sin(phi);
+            numEdges += adj.get(node.id).size();
+            v += 1;
+        }
+        adjTo = new int[numEdges];
+        lengths = new float[numEdges];
+        times = new float[numEdges];
+        flags = new byte[numEdges];
+        int e = 0;
+        for (v = 0; v < n; v++) {
+            adjStart[v] = e;
+            for (GraphDB.Edge edge : adj.get(ids[v])) {
+                int w = indices.get(edge.to.id);
+                adjTo[e] = w;
+                lengths[e] = (float) haversine(lons[v], lats[v], lons[w], lats[w]);
+                times[e] = lengths[e] / (edge.speed / 3.6f);
+                flags[e] = (byte) edge.flags;
+                edge.index = e;
+                e += 1;
+            }
+        }
+        adjStart[n] = e;
+
+        /* twins[e] is the edge for the same road in the other direction; only needed here. */
+        int[] twins = new int[numEdges];
+        for (LinkedList<GraphDB.Edge> edges : adj.values()) {
+            for (GraphDB.Edge edge : edges) {
+                twins[edge.index] = edge.twin.index;
+            }
+        }
+        buildChains();
+        buildSegments();
+        RoutingProfile[] profiles = RoutingProfile.values();
+        profileWeights = new Weights[profiles.length];
+        for (RoutingProfile p : profiles) {
+            profileWeights[p.ordinal()] = new Weights(p, twins);
+        }
+    }
+
+    /**
+     * Marks the junctions and links each to its neighboring junctions by chains. A vertex is
+     * a shape point if it has exactly two edges, to two different vertices other than
+     * itself; every other vertex is a junction. A ring of shape points with no junction on
+     * it gets one of its vertices made a junction.
+     */
+    private void buildChains() {
+        int n = ids.length;
+        junctions = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            junctions[v] = !isShapePoint(v);
+        }
+        boolean[] onChain = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            if (junctions[v]) {
+                markChains(v, onChain);
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            if (!junctions[v] && !onChain[v]) {
+                junctions[v] = true;
+                markChains(v, onChain);
+            }
+        }
+
+        chainStart = new int[n + 1];
+        int c = 0;
+        for (int v = 0; v < n; v++) {
+            chainStart[v] = c;
+            if (junctions[v]) {
+                numJunctions += 1;
+                c += adjStart[v + 1] - adjStart[v];
+            }
+        }
+        chainStart[n] = c;
+        chainTo = new int[c];
+        chainFirst = new int[c];
+        for (int v = 0; v < n; v++) {
+            if (!junctions[v]) {
+                continue;
+            }
+            c = chainStart[v];
+            for (int e = adjStart[v]; e < adjStart[v + 1]; e++) {
+                int prev = v;
+                int w = adjTo[e];
+                while (!junctions[w]) {
+                    int next = adjTo[nextEdge(w, prev)];
+                    prev = w;
+                    w = next;
+                }
+                chainTo[c] = w;
+                chainFirst[c] = e;
+                c += 1;
+            }
+        }
+    }
+
+    /** Indexes every road once, by its edge out of the lower-numbered of its two ends. */
+    private void buildSegments() {
+        int numSegments = 0;
+        for (int v = 0; v < ids.length; v++) {
+            for (int e = adjStart[v]; e < adjStart[v + 1]; e++) {
+                if (v < adjTo[e]) {
+                    numSegments += 1;
+                }
+            }
+        }
+        segmentFrom = new int[numSegments];
+        segmentEdges = new int[numSegments];
+        int[] segmentTo = new int[numSegments];
+        int i = 0;
+        for (int v = 0; v < ids.length; v++) {
+            for (int e = adjStart[v]; e < adjStart[v + 1]; e++) {
+                if (v < adjTo[e]) {
+                    segmentFrom[i] = v;
+                    segmentTo[i] = adjTo[e];
+                    segmentEdges[i] = e;
+                    i += 1;
+                }
+            }
+        }
+        segments = new SegmentIndex(lons, lats, segmentFrom, segmentTo);
+    }
+
+    private boolean isShapePoint(int v) {
+        int e = adjStart[v];
+        return adjStart[v + 1] - e == 2 && adjTo[e] != adjTo[e + 1]
+                && adjTo[e] != v && adjTo[e + 1] != v;
+    }
+
+    /** Marks the shape points on the chains out of vertex v. */
+    private void markChains(int v, boolean[] onChain) {
+        for (int e = adjStart[v]; e < adjStart[v + 1]; e++) {
+            int prev = v;
+            int w = adjTo[e];
+            while (!junctions[w] && !onChain[w]) {
+                onChain[w] = true;
+                int next = adjTo[nextEdge(w, prev)];
+                prev = w;
+                w = next;
+            }
+        }
+    }
+
+    /**
+     * Connects v and w in both directions by a road with the given speed in km/h and flags.
+     * If oneway is 1 the road may only be driven from v to w, if -1 only from w to v.
+     */
+    void addEdge(long v, long w, float speed, int edgeFlags, int oneway) {
+        int forward = oneway < 0 ? edgeFlags | AGAINST_ONEWAY : edgeFlags;
+        int backward = oneway > 0 ? edgeFlags | AGAINST_ONEWAY : edgeFlags;
+        GraphDB.Edge there = new GraphDB.Edge(vertices.get(w), speed, forward);
+        GraphDB.Edge back = new GraphDB.Edge(vertices.get(v), speed, backward);
+        there.twin = back;
+        back.twin = there;
+        adj.get(v).addLast(there);
+        adj.get(w).addLast(back);
     }
 
     void addNode(GraphDB.Node node) {
         vertices.put(node.id, node);
-        LinkedList<GraphDB.Node> newLinked = new LinkedList<>();
+        LinkedList<GraphDB.Edge> newLinked = new LinkedList<>();
         adj.put(node.id, newLinked);
     }
 
-    void addWays(ArrayList<Long> ways) {
+    /**
+     * Connects consecutive nodes of a way whose speed is the given number of km/h.
+     * See addEdge for the meaning of edgeFlags and oneway.
+     */
+    void addWays(ArrayList<Long> ways, float speed, int edgeFlags, int oneway) {
         long key1 = ways.get(0);
         for (int i = 1; i < ways.size(); i++) {
             long key2 = ways.get(i);
-            addEdge(key1, key2);
+            addEdge(key1, key2, speed, edgeFlags, oneway);
             key1 = key2;
         }
     }
 
     void addName(String v) {
-        names.put(cleanString(v), v);
+        names.put(pooled(cleanString(v)), pooled(v));
     }
 
     TrieST<String> getTrie() {
@@ -112,8 +394,8 @@ public class GraphDB {
     void addExtraInfo(Long id, String value) {
         Node x = vertices.get(id);
         verticesWithNames.put(id, x);
-        x.name = cleanString(value);
-        x.actualName = value;
+        x.name = pooled(cleanString(value));
+        x.actualName = pooled(value);
         if (nodeWithNames.containsKey(x.name)) {
             nodeWithNames.get(x.name).addLast(id);
         } else {
@@ -125,12 +407,9 @@ public class GraphDB {
 
     LinkedList<Map<String, Object>> getlocations(String locationName) {
         LinkedList<Map<String, Object>> result = new LinkedList<>();
-        locationName = cleanString(locationName);
         HashMap<String, Object> location = new HashMap<>();
 
-        for (Long id : nodeWithNames.get(locationName)) {
-            GraphDB.Node node = verticesWithNames.get(id);
-
+        for (GraphDB.Node node : locations(locationName)) {
             location.put("lat", node.lat);
             location.put("lon", node.lon);
             location.put("name", node.actualName);
@@ -142,6 +421,21 @@ public class GraphDB {
 
     }
 
+    /**
+     * Returns the named nodes whose cleaned name is that of locationName, or an empty list
+     * if there are none. Callers must not modify the nodes.
+     */
+    List<GraphDB.Node> locations(String locationName) {
+        LinkedList<Long> ids = nodeWithNames.get(cleanString(locationName));
+        List<GraphDB.Node> result = new ArrayList<>();
+        if (ids != null) {
+            for (long id : ids) {
+                result.add(verticesWithNames.get(id));
+            }
+        }
+        return result;
+    }
+
     /** Returns an iterable of all vertex IDs in the graph. */
     Iterable<Long> vertices() {
         //YOUR CODE HERE, this currently returns only an empty list.
@@ -155,8 +449,9 @@ public class GraphDB {
 
     private LinkedList<Long> adjIDs(long v) {
         LinkedList<Long> adjIDs = new LinkedList<>();
-        for (GraphDB.Node vertex : adj.get(v)) {
-            adjIDs.addLast(vertex.id);
+        int i = indices.get(v);
+        for (int e = adjStart[i]; e < adjStart[i + 1]; e++) {
+            adjIDs.addLast(ids[adjTo[e]]);
         }
         return adjIDs;
     }
@@ -214,6 +509,439 @@ public class GraphDB {
         return vertices.size();
     }
 
+    /** Returns the dense index of vertex id, or -1 if id is not in the graph. */
+    int indexOf(long id) {
+        Integer v = indices.get(id);
+        return v == null ? -1 : v;
+    }
+
+    /** Returns the vertex id with dense index v. */
+    long idOf(int v) {
+        return ids[v];
+    }
+
+    /** Longitude of the vertex with dense index v. */
+    double lonAt(int v) {
+        return lons[v];
+    }
+
+    /** Latitude of the vertex with dense index v. */
+    double latAt(int v) {
+        return lats[v];
+    }
+
+    /** Index of the first edge out of dense vertex v; its edges end at edgeStart(v + 1). */
+    int edgeStart(int v) {
+        return adjStart[v];
+    }
+
+    /**
+     * Version of this graph. Graphs built later have higher versions, so caches of derived
+     * data can tell whether they are out of date without holding on to the graph itself.
+     */
+    long version() {
+        return version;
+    }
+
+    /** Whether vertex v is a junction, i.e. not a shape point in the middle of a chain. */
+    boolean isJunction(int v) {
+        return junctions[v];
+    }
+
+    /** Number of junctions, the vertices searches actually visit. */
+    int junctionCount() {
+        return numJunctions;
+    }
+
+    /**
+     * Returns the edge out of shape point v that does not lead back to prev, one of its two
+     * neighbors. Following it from edge to edge walks a chain.
+     */
+    int nextEdge(int v, int prev) {
+        int e = adjStart[v];
+        return adjTo[e] != prev ? e : e + 1;
+    }
+
+    /** Returns an edge from v to w, or -1 if there is none. */
+    int edgeBetween(int v, int w) {
+        for (int e = adjStart[v]; e < adjStart[v + 1]; e++) {
+            if (adjTo[e] == w) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /** Index of the first chain out of junction v; those of v + 1 follow its last. */
+    int chainStart(int v) {
+        return chainStart[v];
+    }
+
+    /** Dense index of the junction chain c leads to. */
+    int chainTarget(int c) {
+        return chainTo[c];
+    }
+
+    /** The edge chain c starts with, out of the junction it leaves. */
+    int chainFirstEdge(int c) {
+        return chainFirst[c];
+    }
+
+    /** Dense index of the vertex edge e leads to. */
+    int edgeTarget(int e) {
+        return adjTo[e];
+    }
+
+    /** Length in meters of edge e. */
+    float edgeLength(int e) {
+        return lengths[e];
+    }
+
+    /** Attribute bits of edge e: its Highway ordinal and AGAINST_ONEWAY, NO_MOTOR, NO_FOOT. */
+    int edgeFlags(int e) {
+        return flags[e] & 0xff;
+    }
+
+    /** Edge weights of the given profile. */
+    Weights weights(RoutingProfile p) {
+        return profileWeights[p.ordinal()];
+    }
+
+    /**
+     * Returns the dense index of the vertex closest to the given longitude and latitude
+     * among those the given profile can route from, or -1 if there is none.
+     * Vertices in the profile's largest component are preferred: one of them is returned
+     * unless a vertex elsewhere is more than SNAP_SLACK_METERS closer, so that a point
+     * near a short stretch of road cut off from the rest snaps to the main network.
+     */
+    int closestIndex(double lon, double lat, RoutingProfile p) {
+        Weights w = weights(p);
+        double closestSoFar = Double.MAX_VALUE;
+        double closestInLargestSoFar = Double.MAX_VALUE;
+        int closest = -1;
+        int closestInLargest = -1;
+        for (int v = 0; v < ids.length; v++) {
+            if (!w.usable[v]) {
+                continue;
+            }
+            double londiff = lons[v] - lon,
+                   latdiff = lats[v] - lat;
+            double distance = londiff * londiff + latdiff * latdiff;
+            if (distance < closestSoFar) {
+                closest = v;
+                closestSoFar = distance;
+            }
+            if (w.components[v] == w.largestComponent && distance < closestInLargestSoFar) {
+                closestInLargest = v;
+                closestInLargestSoFar = distance;
+            }
+        }
+        if (closest < 0 || closest == closestInLargest) {
+            return closest;
+        }
+        double slack = haversine(lon, lat, lons[closestInLargest], lats[closestInLargest])
+                - haversine(lon, lat, lons[closest], lats[closest]);
+        return slack <= SNAP_SLACK_METERS ? closestInLargest : closest;
+    }
+
+    /**
+     * Returns the point on a road the given profile can use that is closest to the given
+     * longitude and latitude, or null if there is none. Like closestIndex, it prefers roads
+     * in the profile's largest component unless a road elsewhere is more than
+     * SNAP_SLACK_METERS closer. The nearest roads are found in the segment index, so this
+     * only looks at the roads around the point.
+     */
+    Position snap(double lon, double lat, RoutingProfile p) {
+        Weights w = weights(p);
+        IntPredicate usable = i -> w.weights[segmentEdges[i]] != Float.POSITIVE_INFINITY
+                || w.reverse[segmentEdges[i]] != Float.POSITIVE_INFINITY;
+        int nearest = segments.nearest(lon, lat, usable);
+        if (nearest < 0) {
+            return null;
+        }
+        Position position = position(nearest, lon, lat);
+        if (w.components[position.from] != w.largestComponent) {
+            int inLargest = segments.nearest(lon, lat, i -> usable.test(i)
+                    && w.components[segmentFrom[i]] == w.largestComponent);
+            if (inLargest >= 0) {
+                Position main = position(inLargest, lon, lat);
+                double slack = haversine(lon, lat, main.lon(), main.lat())
+                        - haversine(lon, lat, position.lon(), position.lat());
+                if (slack <= SNAP_SLACK_METERS) {
+                    position = main;
+                }
+            }
+        }
+        return position;
+    }
+
+    /** Returns the point of road segment i closest to the given longitude and latitude. */
+    private Position position(int i, double lon, double lat) {
+        int e = segmentEdges[i];
+        return new Position(segmentFrom[i], adjTo[e], e, segments.fraction(i, lon, lat));
+    }
+
+    /**
+     * Whether profile p can possibly route between vertices v and w, i.e. they are in the
+     * same component. This is exact for profiles that may use every road both ways.
+     */
+    boolean connected(int v, int w, RoutingProfile p) {
+        int[] components = weights(p).components;
+        return components[v] >= 0 && components[v] == components[w];
+    }
+
+    /** Seconds needed to travel edge e at its road's speed. */
+    float edgeTime(int e) {
+        return times[e];
+    }
+
+    /**
+     * Straight-line (chord) distance in meters between dense vertices v and w. It never
+     * exceeds the great-circle distance, so it never overestimates a route's length and is
+     * an admissible and consistent A* heuristic for edgeLength weights.
+     */
+    double chordDistance(int v, int w) {
+        double dx = xs[v] - xs[w],
+               dy = ys[v] - ys[w],
+               dz = zs[v] - zs[w];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /** Great-circle distance in meters between two points, by the haversine formula. */
+    static double haversine(double lonV, double latV, double lonW, double latW) {
+        double phiV = Math.toRadians(latV),
+               phiW = Math.toRadians(latW);
+        double sinDPhi = Math.sin((phiW - phiV) / 2),
+               sinDLambda = Math.sin(Math.toRadians(lonW - lonV) / 2);
+        double a = sinDPhi * sinDPhi + Math.cos(phiV) * Math.cos(phiW) * sinDLambda * sinDLambda;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Returns the vertices on the convex hull of the given dense vertices, in
+     * counterclockwise order by (lon, lat), using Andrew's monotone chain.
+     */
+    int[] convexHull(int[] vs) {
+        Integer[] sorted = new Integer[vs.length];
+        for (int i = 0; i < vs.length; i++) {
+            sorted[i] = vs[i];
+        }
+        Arrays.sort(sorted, (a, b) -> lons[a] != lons[b] ? Double.compare(lons[a], lons[b])
+                                                         : Double.compare(lats[a], lats[b]));
+        if (sorted.length < 3) {
+            int[] hull = new int[sorted.length];
+            for (int i = 0; i < hull.length; i++) {
+                hull[i] = sorted[i];
+            }
+            return hull;
+        }
+        int[] hull = new int[2 * sorted.length];
+        int k = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            while (k >= 2 && cross(hull[k - 2], hull[k - 1], sorted[i]) <= 0) {
+                k -= 1;
+            }
+            hull[k++] = sorted[i];
+        }
+        for (int i = sorted.length - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(hull[k - 2], hull[k - 1], sorted[i]) <= 0) {
+                k -= 1;
+            }
+            hull[k++] = sorted[i];
+        }
+        return Arrays.copyOf(hull, k - 1);
+    }
+
+    /** Cross product of (b - a) and (c - a); positive if a, b, c turn counterclockwise. */
+    private double cross(int a, int b, int c) {
+        return (lons[b] - lons[a]) * (lats[c] - lats[a])
+                - (lats[b] - lats[a]) * (lons[c] - lons[a]);
+    }
+
+    /**
+     * A point on a road: fraction of the way along edge from vertex `from` to vertex `to`,
+     * so that it is vertex `from` itself at 0 and vertex `to` at 1. The position of a
+     * vertex itself has edge -1 and the vertex as both ends.
+     */
+    final class Position {
+        final int from;
+        final int to;
+        final int edge;
+        final double fraction;
+
+        private Position(int from, int to, int edge, double fraction) {
+            this.from = from;
+            this.to = to;
+            this.edge = edge;
+            this.fraction = fraction;
+        }
+
+        /** Longitude of the point. */
+        double lon() {
+            return lons[from] + fraction * (lons[to] - lons[from]);
+        }
+
+        /** Latitude of the point. */
+        double lat() {
+            return lats[from] + fraction * (lats[to] - lats[from]);
+        }
+    }
+
+    /** Returns the position of dense vertex v. */
+    Position at(int v) {
+        return new Position(v, v, -1, 0);
+    }
+
+    /**
+     * A road out of a vertex, as recorded while parsing. Edges only live until buildIndex
+     * has packed them into the dense arrays.
+     */
+    static class Edge {
+        final Node to;
+        /** Speed of the road in km/h. */
+        final float speed;
+        final int flags;
+        /** The edge for the same road in the other direction. */
+        Edge twin;
+        /** Position of the edge in the dense adjacency arrays, once they are built. */
+        int index;
+
+        Edge(Node to, float speed, int flags) {
+            this.to = to;
+            this.speed = speed;
+            this.flags = flags;
+        }
+    }
+
+    /**
+     * The edge weights of one RoutingProfile, computed once when the graph is built.
+     * weights[e] is the weight of edge e, or infinity if the profile may not use it.
+     * For edge e from v to w, reverse[e] is the weight of the road from w into v, for
+     * backward searches. When the profile weighs both directions of every road the same,
+     * reverse is the weights array itself and costs no memory.
+     * heuristicScale times the chord distance between two vertices never exceeds the
+     * weight of a route between them, so it is an admissible A* heuristic.
+     * usable[v] tells whether the profile can use any road into or out of vertex v.
+     * chains[c] and chainReverse[c] are the sums of weights and reverse over chain c.
+     * components[v] numbers the set of vertices connected to v by roads the profile can use
+     * in at least one direction, or is -1 if v is not usable. Vertices in different
+     * components cannot reach each other; largestComponent is the one with most vertices.
+     */
+    final class Weights {
+        final float[] weights;
+        final float[] reverse;
+        final float[] chains;
+        final float[] chainReverse;
+        final double heuristicScale;
+        final boolean[] usable;
+        final int[] components;
+        final int largestComponent;
+
+        private Weights(RoutingProfile p, int[] twins) {
+            weights = new float[adjTo.length];
+            usable = new boolean[ids.length];
+            double scale = Double.POSITIVE_INFINITY;
+            for (int v = 0; v < ids.length; v++) {
+                for (int e = adjStart[v]; e < adjStart[v + 1]; e++) {
+                    weights[e] = p.weight(flags[e] & 0xff, lengths[e], times[e]);
+                    if (weights[e] == Float.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                    usable[v] = true;
+                    if (lengths[e] > 0) {
+                        scale = Math.min(scale, weights[e] / (double) lengths[e]);
+                    }
+                }
+            }
+            heuristicScale = scale == Double.POSITIVE_INFINITY ? 0 : scale;
+
+            boolean symmetric = true;
+            for (int e = 0; e < twins.length && symmetric; e++) {
+                symmetric = weights[e] == weights[twins[e]];
+            }
+            if (symmetric) {
+                reverse = weights;
+                chains = sumChains(weights);
+                chainReverse = chains;
+            } else {
+                reverse = new float[twins.length];
+                for (int v = 0; v < ids.length; v++) {
+                    for (int e = adjStart[v]; e < adjStart[v + 1]; e++) {
+                        reverse[e] = weights[twins[e]];
+                        if (reverse[e] != Float.POSITIVE_INFINITY) {
+                            usable[v] = true;
+                        }
+                    }
+                }
+                chains = sumChains(weights);
+                chainReverse = sumChains(reverse);
+            }
+
+            components = new int[ids.length];
+            largestComponent = labelComponents();
+        }
+
+        /**
+         * Fills components with a breadth-first search from every usable vertex not yet
+         * labeled, and returns the label of the largest component, or -1 if there is none.
+         */
+        private int labelComponents() {
+            Arrays.fill(components, -1);
+            int[] queue = new int[ids.length];
+            int numComponents = 0;
+            int largest = -1;
+            int largestSize = 0;
+            for (int root = 0; root < ids.length; root++) {
+                if (!usable[root] || components[root] >= 0) {
+                    continue;
+                }
+                int head = 0;
+                int tail = 0;
+                components[root] = numComponents;
+                queue[tail++] = root;
+                while (head < tail) {
+                    int v = queue[head++];
+                    for (int e = adjStart[v]; e < adjStart[v + 1]; e++) {
+                        int w = adjTo[e];
+                        boolean road = weights[e] != Float.POSITIVE_INFINITY
+                                || reverse[e] != Float.POSITIVE_INFINITY;
+                        if (road && components[w] < 0) {
+                            components[w] = numComponents;
+                            queue[tail++] = w;
+                        }
+                    }
+                }
+                if (tail > largestSize) {
+                    largestSize = tail;
+                    largest = numComponents;
+                }
+                numComponents += 1;
+            }
+            return largest;
+        }
+
+        /** Returns the sum of edgeWeights over the edges of each chain. */
+        private float[] sumChains(float[] edgeWeights) {
+            float[] sums = new float[chainTo.length];
+            for (int v = 0; v < ids.length; v++) {
+                for (int c = chainStart[v]; c < chainStart[v + 1]; c++) {
+                    int e = chainFirst[c];
+                    double sum = edgeWeights[e];
+                    int prev = v;
+                    int w = adjTo[e];
+                    while (!junctions[w]) {
+                        e = nextEdge(w, prev);
+                        sum += edgeWeights[e];
+                        prev = w;
+                        w = adjTo[e];
+                    }
+                    sums[c] = (float) sum;
+                }
+            }
+            return sums;
+        }
+    }
+
     static class Node {
         final long id;
         final double lat;
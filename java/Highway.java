@@ -0,0 +1,50 @@
+/**
+ * The OSM highway types kept in the graph, with the speed in km/h assumed for a way of that
+ * type that has no usable maxspeed tag. Ways of any other type are not loaded.
+ * See <a href="http://wiki.openstreetmap.org/wiki/Key:highway">the highway tag</a>.
+ */
+enum Highway {
+    MOTORWAY(100), TRUNK(80), PRIMARY(65), SECONDARY(55), TERTIARY(45), UNCLASSIFIED(40),
+    RESIDENTIAL(30), LIVING_STREET(10), MOTORWAY_LINK(60), TRUNK_LINK(50), PRIMARY_LINK(45),
+    SECONDARY_LINK(40), TERTIARY_LINK(35), SERVICE(20), PEDESTRIAN(5), FOOTWAY(5), PATH(5),
+    STEPS(5), CYCLEWAY(15), TRACK(15);
+
+    private static final Highway[] VALUES = values();
+
+    /** Speed in km/h used when a way has no usable maxspeed tag. */
+    final float defaultSpeed;
+
+    Highway(float defaultSpeed) {
+        this.defaultSpeed = defaultSpeed;
+    }
+
+    /** Returns the type with the given ordinal, as stored in an edge's flags. */
+    static Highway of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /** Returns the type named by an OSM highway tag value, or null if it is not kept. */
+    static Highway parse(String v) {
+        for (Highway h : VALUES) {
+            if (h.name().equalsIgnoreCase(v)) {
+                return h;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether this is one of the motor vehicle road types, i.e. not a service road or a path.
+     * Note that in Berkeley, many of the campus roads are tagged as motor vehicle roads, but
+     * in practice we walk all over them with such impunity that we forget cars can actually
+     * drive on them.
+     */
+    boolean isMotorRoad() {
+        return ordinal() <= TERTIARY_LINK.ordinal();
+    }
+
+    /** Whether pedestrians may use this type of way. */
+    boolean isWalkable() {
+        return this != MOTORWAY && this != MOTORWAY_LINK && this != TRUNK && this != TRUNK_LINK;
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Counts observed values in fixed buckets and keeps their sum, so that percentiles can be
+ * estimated from the counts later. Observing is lock-free and may be done from any number
+ * of threads at once. Buckets are given by their inclusive upper bounds in increasing
+ * order; values above the last bound go into an overflow bucket.
+ */
+class Histogram {
+    private final double[] bounds;
+    /** counts[i] is the number of values in (bounds[i - 1], bounds[i]]. */
+    private final AtomicLongArray counts;
+    private final DoubleAdder sum;
+
+    Histogram(double[] bounds) {
+        this.bounds = bounds;
+        counts = new AtomicLongArray(bounds.length + 1);
+        sum = new DoubleAdder();
+    }
+
+    /** Records one value. */
+    void observe(double value) {
+        int i = Arrays.binarySearch(bounds, value);
+        counts.incrementAndGet(i >= 0 ? i : -i - 1);
+        sum.add(value);
+    }
+
+    /** Records a duration given in nanoseconds, in seconds. */
+    void observeNanos(long nanos) {
+        observe(nanos / 1e9);
+    }
+
+    /** Number of values recorded so far. */
+    long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Appends the histogram in the Prometheus text format: one cumulative _bucket line per
+     * bound and one for +Inf, then _sum and _count.
+     * @param out Where to append.
+     * @param name Name of the metric.
+     * @param labels Labels of this histogram written as name="value" pairs separated by
+     *               commas, or the empty string.
+     */
+    void write(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i <= bounds.length; i++) {
+            cumulative += counts.get(i);
+            String le = i < bounds.length ? Double.toString(bounds[i]) : "+Inf";
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(le)
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(sum.sum())
+                .append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(cumulative)
+                .append('\n');
+    }
+}
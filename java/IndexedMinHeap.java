@@ -0,0 +1,146 @@
+/**
+ * Binary min-heap of int items in the range [0, capacity) with double priorities, stored
+ * in parallel primitive arrays. A position map from item to heap slot makes changePriority
+ * and contains O(log n) and O(1), and no operation allocates once the heap is built.
+ * Router's inner loop therefore never boxes a vertex or scans the heap.
+ */
+class IndexedMinHeap implements IndexedPQ {
+    /** items[1..size] is the heap; slot 0 is left empty as in ArrayHeap. */
+    private final int[] items;
+    private final double[] priorities;
+    /** position[item] is the heap slot of item, or 0 if it is not in the heap. */
+    private final int[] position;
+    private int size;
+
+    IndexedMinHeap(int capacity) {
+        items = new int[capacity + 1];
+        priorities = new double[capacity + 1];
+        position = new int[capacity];
+        size = 0;
+    }
+
+    /** Inserts item, which must not already be in the heap, with the given priority. */
+    @Override
+    public void insert(int item, double priority) {
+        size += 1;
+        items[size] = item;
+        priorities[size] = priority;
+        position[item] = size;
+        swim(size);
+    }
+
+    /** Returns the item with the smallest priority without removing it. */
+    @Override
+    public int peek() {
+        return items[1];
+    }
+
+    /** Returns the smallest priority in the heap. */
+    double minPriority() {
+        return priorities[1];
+    }
+
+    /** Removes and returns the item with the smallest priority. */
+    @Override
+    public int removeMin() {
+        int min = items[1];
+        position[min] = 0;
+        if (size > 1) {
+            items[1] = items[size];
+            priorities[1] = priorities[size];
+            position[items[1]] = 1;
+        }
+        size -= 1;
+        if (size > 1) {
+            sink(1);
+        }
+        return min;
+    }
+
+    /** Changes the priority of item, which must be in the heap. */
+    @Override
+    public void changePriority(int item, double priority) {
+        int i = position[item];
+        double old = priorities[i];
+        priorities[i] = priority;
+        if (priority < old) {
+            swim(i);
+        } else {
+            sink(i);
+        }
+    }
+
+    /** Inserts item, or lowers its priority if it is already in the heap. */
+    @Override
+    public void insertOrDecrease(int item, double priority) {
+        if (position[item] == 0) {
+            insert(item, priority);
+        } else if (priority < priorities[position[item]]) {
+            changePriority(item, priority);
+        }
+    }
+
+    @Override
+    public boolean contains(int item) {
+        return position[item] != 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Removes every item, in time proportional to the current size. */
+    @Override
+    public void clear() {
+        for (int i = 1; i <= size; i++) {
+            position[items[i]] = 0;
+        }
+        size = 0;
+    }
+
+    private void swim(int i) {
+        int item = items[i];
+        double priority = priorities[i];
+        while (i > 1) {
+            int parent = i >>> 1;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        place(item, priority, i);
+    }
+
+    private void sink(int i) {
+        int item = items[i];
+        double priority = priorities[i];
+        int half = size >>> 1;
+        while (i <= half) {
+            int child = i << 1;
+            if (child < size && priorities[child + 1] < priorities[child]) {
+                child += 1;
+            }
+            if (priority <= priorities[child]) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        place(item, priority, i);
+    }
+
+    /** Moves the entry in slot from into slot to. */
+    private void move(int from, int to) {
+        items[to] = items[from];
+        priorities[to] = priorities[from];
+        position[items[to]] = to;
+    }
+
+    private void place(int item, double priority, int i) {
+        items[i] = item;
+        priorities[i] = priority;
+        position[item] = i;
+    }
+}
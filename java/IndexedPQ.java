@@ -0,0 +1,34 @@
+/**
+ * Priority queue of int items in the range [0, capacity) with double priorities, where an
+ * item's priority can be lowered in place. This is ExtrinsicPQ specialized for dense vertex
+ * indices, so implementations can keep everything in primitive arrays.
+ */
+interface IndexedPQ {
+    /* Inserts an item, which must not already be in the PQ, with the given priority value. */
+    void insert(int item, double priority);
+
+    /* Returns the minimum item. */
+    int peek();
+
+    /* Removes and returns the minimum item. */
+    int removeMin();
+
+    /* Changes the priority of the given item, which must be in the PQ. */
+    void changePriority(int item, double priority);
+
+    /* Inserts the item, or lowers its priority if it is already in the PQ. */
+    void insertOrDecrease(int item, double priority);
+
+    /* Returns whether the item is in the PQ. */
+    boolean contains(int item);
+
+    /* Returns the number of items in the PQ. */
+    int size();
+
+    /* Removes every item, in time proportional to the current size. */
+    void clear();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+}
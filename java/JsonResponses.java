@@ -0,0 +1,286 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Writes the JSON responses of the /raster, /route_geometry, /alternatives and /search
+ * endpoints straight to an output stream from typed results, as UTF-8. Nothing is built in
+ * memory on the way: no map of fields, no String of the whole response, and no Base64
+ * String of the rastered image, which is encoded as it is written. The fixed parts of each
+ * response, its field names and punctuation, are encoded to bytes once when the class is
+ * loaded.
+ */
+final class JsonResponses {
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] RASTER_FAILED = ascii("{\"query_success\":false}");
+    private static final byte[] RASTER_GRID = ascii("{\"query_success\":true,\"render_grid\":[");
+    private static final byte[] RASTER_UL_LON = ascii("],\"raster_ul_lon\":");
+    private static final byte[] RASTER_UL_LAT = ascii(",\"raster_ul_lat\":");
+    private static final byte[] RASTER_LR_LON = ascii(",\"raster_lr_lon\":");
+    private static final byte[] RASTER_LR_LAT = ascii(",\"raster_lr_lat\":");
+    private static final byte[] RASTER_DEPTH = ascii(",\"depth\":");
+    private static final byte[] RASTER_WIDTH = ascii(",\"raster_width\":");
+    private static final byte[] RASTER_HEIGHT = ascii(",\"raster_height\":");
+    private static final byte[] RASTER_IMAGE = ascii(",\"b64_encoded_image_data\":\"");
+    private static final byte[] ROUTE_FOUND = ascii("{\"found\":");
+    private static final byte[] ROUTE_NODES = ascii(",\"node_count\":");
+    private static final byte[] ROUTE_DISTANCE = ascii(",\"distance\":");
+    private static final byte[] ROUTE_POLYLINE = ascii(",\"polyline\":");
+    private static final byte[] ROUTE_LIST = ascii(",\"routes\":[");
+    private static final byte[] ROUTE_LIST_NODES = ascii("{\"node_count\":");
+    private static final byte[] LOCATION_LAT = ascii("{\"lat\":");
+    private static final byte[] LOCATION_LON = ascii(",\"lon\":");
+    private static final byte[] LOCATION_NAME = ascii(",\"name\":");
+    private static final byte[] LOCATION_ID = ascii(",\"id\":");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private JsonResponses() {
+    }
+
+    /**
+     * Writes the /raster response for raster. If it succeeded, png holds the rastered image,
+     * which is included Base64 encoded along with its size.
+     */
+    static void writeRaster(OutputStream stream, RasterResult raster, ByteArrayOutputStream png)
+            throws IOException {
+        OutputStream out = new BufferedOutputStream(stream, BUFFER_SIZE);
+        if (!raster.querySuccess()) {
+            out.write(RASTER_FAILED);
+            out.flush();
+            return;
+        }
+        out.write(RASTER_GRID);
+        for (int r = 0; r < raster.renderGrid.length; r++) {
+            if (r > 0) {
+                out.write(',');
+            }
+            writeStrings(out, raster.renderGrid[r]);
+        }
+        out.write(RASTER_UL_LON);
+        writeNumber(out, raster.ulLon);
+        out.write(RASTER_UL_LAT);
+        writeNumber(out, raster.ulLat);
+        out.write(RASTER_LR_LON);
+        writeNumber(out, raster.lrLon);
+        out.write(RASTER_LR_LAT);
+        writeNumber(out, raster.lrLat);
+        out.write(RASTER_DEPTH);
+        writeNumber(out, raster.depth);
+        out.write(RASTER_WIDTH);
+        writeNumber(out, raster.width());
+        out.write(RASTER_HEIGHT);
+        writeNumber(out, raster.height());
+        out.write(RASTER_IMAGE);
+        OutputStream base64 = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            /* Closing the encoder writes its last characters; the response goes on. */
+            @Override
+            public void close() {
+            }
+        });
+        png.writeTo(base64);
+        base64.close();
+        out.write('"');
+        out.write('}');
+        out.flush();
+    }
+
+    /**
+     * Writes the /route_geometry response for the route from source through the vertices
+     * of g with the given dense indices to destination: whether there is one, its number of
+     * vertices, its length in meters and its encoded polyline (see Polyline). The length
+     * and the polyline take in the parts of the end segments between the snapped points
+     * and the route's first and last vertices.
+     */
+    static void writeRoute(OutputStream stream, GraphDB g, GraphDB.Position source,
+                           GraphDB.Position destination, int[] path) throws IOException {
+        OutputStream out = new BufferedOutputStream(stream, BUFFER_SIZE);
+        out.write(ROUTE_FOUND);
+        writeAscii(out, path.length > 0 ? "true" : "false");
+        out.write(ROUTE_NODES);
+        writeNumber(out, path.length);
+        writeGeometry(out, g, source, destination, path);
+        out.write('}');
+        out.flush();
+    }
+
+    /**
+     * Writes the /alternatives response for the given routes through the vertices of g
+     * from source to destination: whether there are any, and the number of vertices,
+     * length and encoded polyline of each, as for /route_geometry.
+     */
+    static void writeRoutes(OutputStream stream, GraphDB g, GraphDB.Position source,
+                            GraphDB.Position destination, int[][] paths) throws IOException {
+        OutputStream out = new BufferedOutputStream(stream, BUFFER_SIZE);
+        out.write(ROUTE_FOUND);
+        writeAscii(out, paths.length > 0 ? "true" : "false");
+        out.write(ROUTE_LIST);
+        for (int i = 0; i < paths.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(ROUTE_LIST_NODES);
+            writeNumber(out, paths[i].length);
+            writeGeometry(out, g, source, destination, paths[i]);
+            out.write('}');
+        }
+        out.write(']');
+        out.write('}');
+        out.flush();
+    }
+
+    /**
+     * Writes the distance and polyline fields of a route from source to destination. A
+     * route straight along the segment both are on runs between the two points alone.
+     */
+    private static void writeGeometry(OutputStream out, GraphDB g, GraphDB.Position source,
+                                      GraphDB.Position destination, int[] path)
+            throws IOException {
+        double distance = 0;
+        String polyline = "";
+        if (Router.isDirect(source, destination, path)) {
+            distance = Math.abs(Router.along(source, destination) - source.fraction)
+                    * g.edgeLength(source.edge);
+            polyline = Polyline.encode(g, source, destination, new int[0]);
+        } else if (path.length > 0) {
+            distance = partialLength(g, source, path[0])
+                    + partialLength(g, destination, path[path.length - 1]);
+            for (int i = 1; i < path.length; i++) {
+                distance += GraphDB.haversine(g.lonAt(path[i - 1]), g.latAt(path[i - 1]),
+                                              g.lonAt(path[i]), g.latAt(path[i]));
+            }
+            polyline = Polyline.encode(g, source, destination, path);
+        }
+        out.write(ROUTE_DISTANCE);
+        writeNumber(out, distance);
+        out.write(ROUTE_POLYLINE);
+        writeString(out, polyline);
+    }
+
+    /** Length in meters of the part of position's segment between it and its end v. */
+    private static double partialLength(GraphDB g, GraphDB.Position position, int v) {
+        if (position.edge < 0) {
+            return 0;
+        }
+        double fraction = v == position.from ? position.fraction : 1 - position.fraction;
+        return fraction * g.edgeLength(position.edge);
+    }
+
+    /** Writes the /search response listing the given locations in full. */
+    static void writeLocations(OutputStream stream, List<GraphDB.Node> locations)
+            throws IOException {
+        OutputStream out = new BufferedOutputStream(stream, BUFFER_SIZE);
+        out.write('[');
+        boolean first = true;
+        for (GraphDB.Node node : locations) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write(LOCATION_LAT);
+            writeNumber(out, node.lat);
+            out.write(LOCATION_LON);
+            writeNumber(out, node.lon);
+            out.write(LOCATION_NAME);
+            writeString(out, node.actualName);
+            out.write(LOCATION_ID);
+            writeNumber(out, node.id);
+            out.write('}');
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    /** Writes the /search response listing the names matching a prefix. */
+    static void writeNames(OutputStream stream, List<String> names) throws IOException {
+        OutputStream out = new BufferedOutputStream(stream, BUFFER_SIZE);
+        writeStrings(out, names.toArray(new String[0]));
+        out.flush();
+    }
+
+    private static void writeStrings(OutputStream out, String[] strings) throws IOException {
+        out.write('[');
+        for (int i = 0; i < strings.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeString(out, strings[i]);
+        }
+        out.write(']');
+    }
+
+    private static void writeNumber(OutputStream out, double value) throws IOException {
+        writeAscii(out, Double.toString(value));
+    }
+
+    private static void writeNumber(OutputStream out, long value) throws IOException {
+        writeAscii(out, Long.toString(value));
+    }
+
+    private static void writeAscii(OutputStream out, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes s as a JSON string in UTF-8, escaping quotes, backslashes, control characters
+     * and the line separators JavaScript does not allow in string literals.
+     */
+    private static void writeString(OutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeAscii(out, "null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                out.write('\\');
+                out.write('u');
+                out.write(HEX[c >> 12]);
+                out.write(HEX[(c >> 8) & 0xf]);
+                out.write(HEX[(c >> 4) & 0xf]);
+                out.write(HEX[c & 0xf]);
+            } else if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xc0 | c >> 6);
+                out.write(0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                out.write(0xf0 | codePoint >> 18);
+                out.write(0x80 | (codePoint >> 12) & 0x3f);
+                out.write(0x80 | (codePoint >> 6) & 0x3f);
+                out.write(0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                /* An unpaired surrogate cannot be encoded; write a replacement character. */
+                out.write(0xef);
+                out.write(0xbf);
+                out.write(0xbd);
+            } else {
+                out.write(0xe0 | c >> 12);
+                out.write(0x80 | (c >> 6) & 0x3f);
+                out.write(0x80 | c & 0x3f);
+            }
+        }
+        out.write('"');
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
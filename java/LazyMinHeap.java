@@ -0,0 +1,91 @@
+/**
+ * Binary min-heap of (int item, double priority) entries in parallel primitive arrays,
+ * with no position tracking: the same item may be pushed many times. Searches that use it
+ * push a vertex again instead of decreasing its key and skip stale entries when they pop
+ * them. The arrays grow by doubling and are kept across clear(), so a heap reused from
+ * search to search stops allocating once it has reached its working size.
+ */
+class LazyMinHeap {
+    /** items[1..size] is the heap; slot 0 is left empty as in ArrayHeap. */
+    private int[] items;
+    private double[] priorities;
+    private int size;
+
+    LazyMinHeap(int initialCapacity) {
+        items = new int[initialCapacity + 1];
+        priorities = new double[initialCapacity + 1];
+        size = 0;
+    }
+
+    /** Adds an entry for item, whether or not it is already in the heap. */
+    void push(int item, double priority) {
+        if (size + 1 == items.length) {
+            resize(items.length * 2);
+        }
+        size += 1;
+        int i = size;
+        while (i > 1) {
+            int parent = i >>> 1;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            items[i] = items[parent];
+            priorities[i] = priorities[parent];
+            i = parent;
+        }
+        items[i] = item;
+        priorities[i] = priority;
+    }
+
+    /** Returns the smallest priority in the heap. */
+    double minPriority() {
+        return priorities[1];
+    }
+
+    /** Removes the entry with the smallest priority and returns its item. */
+    int removeMin() {
+        int min = items[1];
+        int item = items[size];
+        double priority = priorities[size];
+        size -= 1;
+        int i = 1;
+        int half = size >>> 1;
+        while (i <= half) {
+            int child = i << 1;
+            if (child < size && priorities[child + 1] < priorities[child]) {
+                child += 1;
+            }
+            if (priority <= priorities[child]) {
+                break;
+            }
+            items[i] = items[child];
+            priorities[i] = priorities[child];
+            i = child;
+        }
+        items[i] = item;
+        priorities[i] = priority;
+        return min;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /** Helper function to resize the backing arrays when necessary. */
+    private void resize(int capacity) {
+        int[] newItems = new int[capacity];
+        double[] newPriorities = new double[capacity];
+        System.arraycopy(items, 1, newItems, 1, size);
+        System.arraycopy(priorities, 1, newPriorities, 1, size);
+        items = newItems;
+        priorities = newPriorities;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the calls in a log written by RequestRecorder to a running MapServer and reports
+ * their latency percentiles and errors, so that a recorded load can be played back against
+ * any build on one machine. A call recorded with a client id is sent with it in the client
+ * cookie, so that each client's route and isochrone overlays are stored and drawn as they
+ * were when the log was recorded.
+ *
+ * The load is open-loop: every call has a due time, either its recorded time or one
+ * fixed by the requested rate, and is sent then whether or not earlier calls have come
+ * back. At most the given number of calls are in flight; calls that find every connection
+ * busy wait for one, and a call's latency is measured from its due time, so waiting counts
+ * against the server instead of being hidden by sending fewer calls.
+ * Usage: java LoadReplay log [rate] [concurrency] [url]
+ * where rate is in calls per second, 0 (the default) meaning as recorded, concurrency
+ * defaults to 16 and url to http://localhost:4567.
+ */
+public class LoadReplay {
+    private static final int TIMEOUT_MILLIS = 30000;
+    /** Name of the cookie MapServer identifies clients by. */
+    private static final String CLIENT_COOKIE = "bearmaps_client";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java LoadReplay log [rate] [concurrency] [url]");
+            return;
+        }
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        String base = args.length > 3 ? args[3] : "http://localhost:4567";
+
+        List<String> paths = new ArrayList<>();
+        List<String> clients = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(args[0]))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                int clientTab = line.indexOf('\t', tab + 1);
+                offsets.add(Long.parseLong(line.substring(0, tab)));
+                paths.add(clientTab < 0 ? line.substring(tab + 1)
+                                        : line.substring(tab + 1, clientTab));
+                clients.add(clientTab < 0 ? null : line.substring(clientTab + 1));
+            }
+        }
+        int n = paths.size();
+        if (n == 0) {
+            System.out.println("The log holds no calls.");
+            return;
+        }
+
+        long[] latencies = new long[n];
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(n);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            long due = start + (rate > 0 ? (long) (i * 1e9 / rate)
+                                          : (offsets.get(i) - offsets.get(0)) * 1000000);
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            int call = i;
+            String url = base + paths.get(i);
+            String client = clients.get(i);
+            pool.execute(() -> {
+                if (!send(url, client)) {
+                    errors.incrementAndGet();
+                }
+                latencies[call] = System.nanoTime() - due;
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%d calls in %.1f s (%.1f calls/s), %d errors.%n", n, elapsed / 1e9,
+                n * 1e9 / elapsed, errors.get());
+        System.out.printf("p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms%n",
+                percentile(latencies, 0.5) / 1e6, percentile(latencies, 0.99) / 1e6,
+                percentile(latencies, 0.999) / 1e6, latencies[n - 1] / 1e6);
+    }
+
+    /**
+     * Sends a GET request to url, as client if that is not null, and reads the whole
+     * response; returns whether it was 200.
+     */
+    private static boolean send(String url, String client) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            if (client != null) {
+                connection.setRequestProperty("Cookie", CLIENT_COOKIE + "=" + client);
+            }
+            int status = connection.getResponseCode();
+            InputStream body = status < 400
+                    ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                byte[] buffer = new byte[8192];
+                while (body.read(buffer) >= 0) {
+                    continue;
+                }
+                body.close();
+            }
+            return status == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Returns the value below which the given fraction of the sorted values fall. */
+    private static long percentile(long[] sorted, double fraction) {
+        int i = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+}
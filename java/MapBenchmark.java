@@ -0,0 +1,263 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Measures the work behind each endpoint on a fixed corpus of queries over berkeley.osm, so
+ * that a change to Router.shortestPath, Rasterer.raster, TrieST.keysWithPrefix,
+ * SearchCache.keysWithPrefix, GraphDB.closest or GraphDB.snap can be judged by numbers
+ * before it is merged. The corpus is drawn with a fixed seed from the map itself, so every
+ * run and every branch sees the same queries.
+ *
+ * Each suite runs one warm-up round and then the given number of measured rounds on one
+ * thread, and reports its throughput, its latency percentiles and the bytes it allocates
+ * per operation. The route cache is emptied before every round of the route suite, so it
+ * measures searches rather than cache hits.
+ * Usage: java MapBenchmark [queries] [rounds] [suite...]
+ * where the suites are route, alternatives, raster, search, searchcache, closest, vertex,
+ * snap, tiles and archive, all of them by default. alternatives finds up to three routes
+ * per query where route finds one. search looks each prefix up in the trie, and
+ * searchcache through the SearchCache that /search answers from, so after the warm-up
+ * round it mostly measures cache hits. vertex snaps to the closest vertex a route can
+ * start from, as routes used to, and snap to the closest point on a road, as they do now.
+ * tiles decodes the tiles of each raster query from their files in img/, and archive the
+ * same tiles from the archive TileArchiveWriter packs them into, if there is one.
+ */
+public class MapBenchmark {
+    private static final String OSM_DB_PATH = "berkeley.osm";
+    private static final String IMG_ROOT = "img/";
+    private static final String TILE_ARCHIVE = "img.tiles";
+    private static final long SEED = 61L;
+    /** Viewport sizes of the raster queries, as {width, height} in pixels. */
+    private static final double[][] VIEWPORTS = {{1280, 800}, {1920, 1080}, {800, 600}};
+
+    /** One query of a suite. */
+    private interface Operation {
+        Object run(int query);
+    }
+
+    /** Results are stored here so the JIT cannot drop the work that computed them. */
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException {
+        int numQueries = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<String> suites = args.length > 2
+                ? Arrays.asList(args).subList(2, args.length)
+                : Arrays.asList("route", "alternatives", "raster", "search", "searchcache",
+                                "closest", "vertex", "snap", "tiles", "archive");
+
+        GraphDB g = new GraphDB(OSM_DB_PATH);
+        Rasterer rasterer = new Rasterer(IMG_ROOT);
+        Random random = new Random(SEED);
+        double[][] points = randomPoints(g, random, 2 * numQueries);
+        List<Map<String, Double>> boxes = randomBoxes(random, numQueries);
+        String[] prefixes = randomPrefixes(g.getTrie(), random, numQueries);
+        SearchCache searchCache = new SearchCache(g.getTrie());
+        String[][][] grids = new String[numQueries][][];
+        for (int i = 0; i < numQueries; i++) {
+            grids[i] = rasterer.raster(boxes.get(i)).renderGrid;
+        }
+        TileArchive archive = new File(TILE_ARCHIVE).isFile()
+                ? TileArchive.open(TILE_ARCHIVE) : null;
+
+        System.out.println(g.size() + " vertices, " + numQueries + " queries per round, "
+                + rounds + " rounds.");
+        System.out.printf("%-12s %12s %10s %10s %10s %12s%n",
+                "suite", "ops/s", "p50 us", "p99 us", "max us", "bytes/op");
+        for (String suite : suites) {
+            switch (suite) {
+                case "route":
+                    run(suite, numQueries, rounds, Router::invalidateCaches, i ->
+                            Router.shortestPath(g, points[2 * i][0], points[2 * i][1],
+                                    points[2 * i + 1][0], points[2 * i + 1][1]));
+                    break;
+                case "alternatives":
+                    run(suite, numQueries, rounds, null, i ->
+                            Router.alternatives(g, points[2 * i][0], points[2 * i][1],
+                                    points[2 * i + 1][0], points[2 * i + 1][1],
+                                    RoutingProfile.SHORTEST));
+                    break;
+                case "raster":
+                    run(suite, numQueries, rounds, null, i -> rasterer.raster(boxes.get(i)));
+                    break;
+                case "search":
+                    run(suite, numQueries, rounds, null,
+                        i -> g.getTrie().keysWithPrefix(prefixes[i]));
+                    break;
+                case "searchcache":
+                    run(suite, numQueries, rounds, null,
+                        i -> searchCache.keysWithPrefix(prefixes[i]));
+                    break;
+                case "closest":
+                    run(suite, numQueries, rounds, null,
+                        i -> g.closest(points[i][0], points[i][1]));
+                    break;
+                case "vertex":
+                    run(suite, numQueries, rounds, null,
+                        i -> g.closestIndex(points[i][0], points[i][1], RoutingProfile.SHORTEST));
+                    break;
+                case "snap":
+                    run(suite, numQueries, rounds, null,
+                        i -> g.snap(points[i][0], points[i][1], RoutingProfile.SHORTEST));
+                    break;
+                case "tiles":
+                    run(suite, numQueries, rounds, null, i -> readTiles(grids[i], null));
+                    break;
+                case "archive":
+                    if (archive == null) {
+                        System.out.println("No tile archive at " + TILE_ARCHIVE + ".");
+                        break;
+                    }
+                    run(suite, numQueries, rounds, null, i -> readTiles(grids[i], archive));
+                    break;
+                default:
+                    System.out.println("Unknown suite " + suite + ".");
+            }
+        }
+    }
+
+    /**
+     * Runs op on every query for one warm-up round and the given number of measured rounds,
+     * calling beforeRound first if it is not null, and prints the measurements.
+     */
+    private static void run(String suite, int numQueries, int rounds, Runnable beforeRound,
+                            Operation op) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean countBytes = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+        long tid = Thread.currentThread().getId();
+
+        long[] latencies = new long[numQueries * rounds];
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (int r = 0; r <= rounds; r++) {
+            if (beforeRound != null) {
+                beforeRound.run();
+            }
+            long bytes = countBytes ? allocatedBytes(threads, tid) : 0;
+            long roundStart = System.nanoTime();
+            for (int i = 0; i < numQueries; i++) {
+                long start = System.nanoTime();
+                sink = op.run(i);
+                if (r > 0) {
+                    latencies[(r - 1) * numQueries + i] = System.nanoTime() - start;
+                }
+            }
+            /* The first round warms up the JIT and is not reported. */
+            if (r > 0) {
+                totalNanos += System.nanoTime() - roundStart;
+                totalBytes += countBytes ? allocatedBytes(threads, tid) - bytes : 0;
+            }
+        }
+
+        Arrays.sort(latencies);
+        long ops = (long) numQueries * rounds;
+        System.out.printf("%-12s %12.0f %10.1f %10.1f %10.1f %12s%n", suite,
+                ops * 1e9 / totalNanos, percentile(latencies, 0.5) / 1000.0,
+                percentile(latencies, 0.99) / 1000.0, latencies[latencies.length - 1] / 1000.0,
+                countBytes ? Long.toString(totalBytes / ops) : "n/a");
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads, long tid) {
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(tid);
+    }
+
+    /** Returns the value below which the given fraction of the sorted values fall. */
+    private static long percentile(long[] sorted, double fraction) {
+        int i = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    /**
+     * Decodes every tile of a render grid of img/ files, from its file or, if archive is
+     * not null, from archive, and returns their total width.
+     */
+    private static int readTiles(String[][] grid, TileArchive archive) {
+        int width = 0;
+        try {
+            for (String[] row : grid) {
+                for (String file : row) {
+                    BufferedImage tile = archive == null ? ImageIO.read(new File(file))
+                            : ImageIO.read(archive.read(file.substring(IMG_ROOT.length(),
+                                    file.length() - ".png".length())));
+                    width += tile.getWidth();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return width;
+    }
+
+    /** Returns count {lon, lat} points, each a little off a random vertex of g. */
+    private static double[][] randomPoints(GraphDB g, Random random, int count) {
+        List<Long> vertices = new ArrayList<>();
+        for (long v : g.vertices()) {
+            vertices.add(v);
+        }
+        double[][] points = new double[count][];
+        for (int i = 0; i < count; i++) {
+            long v = vertices.get(random.nextInt(vertices.size()));
+            points[i] = new double[] {g.lon(v) + (random.nextDouble() - 0.5) * 1e-4,
+                                      g.lat(v) + (random.nextDouble() - 0.5) * 1e-4};
+        }
+        return points;
+    }
+
+    /**
+     * Returns count raster queries inside the root tile, zoomed in anywhere from the whole
+     * map to a few blocks, with the viewport sizes of common screens.
+     */
+    private static List<Map<String, Double>> randomBoxes(Random random, int count) {
+        double lonSpan = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+        double latSpan = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+        List<Map<String, Double>> boxes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double scale = Math.pow(2, -random.nextInt(7));
+            double ullon = MapServer.ROOT_ULLON + random.nextDouble() * (1 - scale) * lonSpan;
+            double ullat = MapServer.ROOT_ULLAT - random.nextDouble() * (1 - scale) * latSpan;
+            double[] viewport = VIEWPORTS[random.nextInt(VIEWPORTS.length)];
+            Map<String, Double> box = new HashMap<>();
+            box.put("ullon", ullon);
+            box.put("ullat", ullat);
+            box.put("lrlon", ullon + scale * lonSpan);
+            box.put("lrlat", ullat - scale * latSpan);
+            box.put("w", viewport[0]);
+            box.put("h", viewport[1]);
+            boxes.add(box);
+        }
+        return boxes;
+    }
+
+    /**
+     * Returns count prefixes of 1 to 6 characters of random names in the map, cleaned as
+     * the trie keys them, so that every prefix matches at least one name. Both prefixes the
+     * SearchCache precomputes and longer ones are drawn.
+     */
+    private static String[] randomPrefixes(TrieST<String> names, Random random, int count) {
+        List<String> keys = new ArrayList<>();
+        for (String name : names.keysWithPrefix("")) {
+            String key = GraphDB.cleanString(name);
+            if (!key.isEmpty()) {
+                keys.add(key);
+            }
+        }
+        String[] prefixes = new String[count];
+        for (int i = 0; i < count; i++) {
+            String key = keys.isEmpty() ? "" : keys.get(random.nextInt(keys.size()));
+            prefixes[i] = key.substring(0, Math.min(key.length(), 1 + random.nextInt(6)));
+        }
+        return prefixes;
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+/**
+ * One version of the map: the graph parsed from an OSM file, the rasterer for a tile set,
+ * and the search cache over the graph's names. A MapData never changes once built.
+ * MapServer serves each request from the MapData that was current when the request
+ * arrived, and reloading the map swaps in a new one, so requests in flight finish on the
+ * data they started with.
+ */
+class MapData {
+    /** The root tile, which covers the whole map and names no quadrant. */
+    static final String ROOT_TILE = ".png";
+
+    final String osmPath;
+    final String imgRoot;
+    /** The archive imgRoot names, or null if it is a directory of tile files. */
+    final TileArchive tiles;
+    final GraphDB graph;
+    final Rasterer rasterer;
+    final SearchCache searchCache;
+
+    /**
+     * Parses the OSM file at osmPath and indexes the tiles in imgRoot, either a directory
+     * or a TileArchive. This takes a while, so reloads run it in the background.
+     * @throws UncheckedIOException if imgRoot is an archive that cannot be opened.
+     */
+    MapData(String osmPath, String imgRoot) {
+        this.osmPath = osmPath;
+        this.imgRoot = tileRoot(imgRoot);
+        if (new File(imgRoot).isFile()) {
+            try {
+                tiles = TileArchive.open(imgRoot);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            /* The render grid names the tiles of an archive as if it were a directory. */
+            rasterer = new Rasterer(imgRoot + "/");
+        } else {
+            tiles = null;
+            rasterer = new Rasterer(this.imgRoot);
+        }
+        graph = new GraphDB(osmPath);
+        searchCache = new SearchCache(graph.getTrie());
+    }
+
+    /**
+     * Returns imgRoot as the rasterer expects it: unchanged if it names an archive, and
+     * ending with a separator if it names a directory, since tile names are appended to it.
+     */
+    static String tileRoot(String imgRoot) {
+        if (new File(imgRoot).isFile() || imgRoot.endsWith("/")
+                || imgRoot.endsWith(File.separator)) {
+            return imgRoot;
+        }
+        return imgRoot + File.separator;
+    }
+
+    /**
+     * Reads the root tile, which every raster at the top zoom level needs, so that a tile
+     * set that cannot be served is noticed before it replaces one that can.
+     * @throws IOException if the root tile is missing or cannot be decoded.
+     */
+    void checkTiles() throws IOException {
+        String file = (tiles == null ? imgRoot : imgRoot + "/") + ROOT_TILE;
+        if (readTile(file) == null) {
+            throw new IOException(file + " is not an image.");
+        }
+    }
+
+    /**
+     * Reads the tile at file, an entry of a render grid from this map data's rasterer.
+     * Tiles of an archive are decoded straight from its mapping.
+     */
+    BufferedImage readTile(String file) throws IOException {
+        if (tiles == null) {
+            return ImageIO.read(new File(file));
+        }
+        String name = file.substring(imgRoot.length() + 1, file.length() - ".png".length());
+        return ImageIO.read(tiles.read(name));
+    }
+
+    /** Version of this map data, that of its graph. */
+    long version() {
+        return graph.version();
+    }
+}
@@ -2,21 +2,32 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Polygon;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.Base64;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
 import static spark.Spark.*;
 
@@ -44,8 +55,15 @@ public class MapServer {
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    /** Isochrone overlay information: translucent orange. */
+    public static final Color ISOCHRONE_FILL_COLOR = new Color(255, 165, 0, 80);
     /** The tile images are in the IMG_ROOT folder. */
     private static final String IMG_ROOT = "img/";
+    /**
+     * If there is a tile archive at TILE_ARCHIVE, written by TileArchiveWriter, the tiles
+     * are read from it instead of the IMG_ROOT folder.
+     */
+    private static final String TILE_ARCHIVE = "img.tiles";
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
@@ -62,8 +80,8 @@ public class MapServer {
     private static final String[] REQUIRED_RASTER_REQUEST_PARAMS = {"ullat", "ullon", "lrlat",
         "lrlon", "w", "h"};
     /**
-     * Each route request to the server will have the following parameters
-     * as keys in the params map.<br>
+     * Each route, route geometry and alternatives request to the server will have the
+     * following parameters as keys in the params map.<br>
      * start_lat -> start point latitude,<br> start_lon -> start point longitude,<br>
      * end_lat -> end point latitude, <br>end_lon -> end point longitude.
      **/
@@ -71,15 +89,84 @@ public class MapServer {
         "end_lat", "end_lon"};
 
     /**
-     * The result of rastering must be a map containing all of the
-     * fields listed in the comments for getMapRaster in Rasterer.java.
+     * Each distance matrix request has the following parameters, each a list of points
+     * written as lat,lon pairs separated by semicolons.<br>
+     * sources -> the points distances are measured from,<br>
+     * targets -> the points distances are measured to.
+     **/
+    private static final String[] REQUIRED_MATRIX_REQUEST_PARAMS = {"sources", "targets"};
+    /** A distance matrix request may ask for at most this many sources times targets. */
+    private static final int MAX_MATRIX_CELLS = 10000;
+
+    /**
+     * Each isochrone request has the following parameters.<br>
+     * lat -> latitude of the starting point,<br> lon -> longitude of the starting point,<br>
+     * distance -> the largest route weight to include: meters, or seconds when driving.
      **/
-    private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
-        "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lat", "lon",
+        "distance"};
+
+    /**
+     * Route, alternatives, distance matrix and isochrone requests may also name the
+     * RoutingProfile to route with in this parameter: shortest (the default), driving or
+     * walking.
+     **/
+    private static final String PROFILE_PARAM = "profile";
+    /** Content type of the responses written by JsonResponses. */
+    private static final String JSON_TYPE = "application/json";
+
+    /** Cookie identifying a client, so that each client sees only its own overlays. */
+    private static final String CLIENT_COOKIE = "bearmaps_client";
+    /** At most this many clients' overlays of each kind are kept at once. */
+    private static final int MAX_CLIENT_OVERLAYS = 10000;
+    /** Overlays untouched for this long are forgotten. */
+    private static final long OVERLAY_TTL_MILLIS = 30 * 60 * 1000;
 
-    private static Rasterer rasterer;
-    private static GraphDB graph;
-    private static LinkedList<Long> route = new LinkedList<>();
+    /**
+     * The map data requests are served from. Each request reads it once and uses that
+     * snapshot throughout; a reload replaces it as a whole.
+     */
+    private static volatile MapData data;
+    /** Whether a reload is in progress; only one runs at a time. */
+    private static final AtomicBoolean RELOADING = new AtomicBoolean();
+    private static final Gson GSON = new Gson();
+    /**
+     * Set the system property bearmaps.virtualThreads to false to serve requests from
+     * Jetty's default thread pool even when virtual threads are available.
+     */
+    private static final String VIRTUAL_THREADS_PROPERTY = "bearmaps.virtualThreads";
+    /**
+     * Tile reads and PNG encoding run here rather than on the request thread, so a burst of
+     * raster requests cannot oversubscribe the CPU however many request threads there are.
+     */
+    private static final ExecutorService RENDER_EXECUTOR =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    /** Each client's current route, as a list of vertex ids. */
+    private static final OverlayStore ROUTES =
+            new OverlayStore(MAX_CLIENT_OVERLAYS, OVERLAY_TTL_MILLIS);
+    /** Endpoints whose latency is recorded; other paths, such as static files, are not. */
+    private static final Set<String> TIMED_ENDPOINTS = new HashSet<>(Arrays.asList("/raster",
+        "/route", "/route_geometry", "/alternatives", "/distance_matrix", "/isochrone",
+        "/clear_route", "/search"));
+    /**
+     * Set the system property bearmaps.recordRequests to a file name to append every call
+     * to RECORDED_ENDPOINTS to that file, for LoadReplay.
+     */
+    private static final String RECORD_PROPERTY = "bearmaps.recordRequests";
+    private static final Set<String> RECORDED_ENDPOINTS =
+            new HashSet<>(Arrays.asList("/raster", "/route", "/route_geometry",
+                    "/alternatives", "/isochrone", "/clear_route", "/search"));
+    private static final RequestRecorder RECORDER =
+            RequestRecorder.create(System.getProperty(RECORD_PROPERTY));
+    /** Request attribute holding the System.nanoTime at which the request arrived. */
+    private static final String START_ATTRIBUTE = "bearmaps.start";
+    private static final Histogram GRID_TIME = Metrics.PHASES.histogram("grid");
+    private static final Histogram TILE_LOAD_TIME = Metrics.PHASES.histogram("tile_load");
+    private static final Histogram COMPOSE_TIME = Metrics.PHASES.histogram("compose");
+    private static final Histogram ENCODE_TIME = Metrics.PHASES.histogram("encode");
+    /** Outline of each client's isochrone overlay, as a ring of vertex ids. */
+    private static final OverlayStore ISOCHRONES =
+            new OverlayStore(MAX_CLIENT_OVERLAYS, OVERLAY_TTL_MILLIS);
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -89,16 +176,23 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
-        rasterer = new Rasterer(IMG_ROOT);
+        data = new MapData(OSM_DB_PATH,
+                new File(TILE_ARCHIVE).isFile() ? TILE_ARCHIVE : IMG_ROOT);
+        Metrics.MAP_VERSION.register("", () -> data.version());
     }
 
     public static void main(String[] args) {
         initialize();
+        useVirtualThreads();
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
         before((request, response) -> {
+            request.attribute(START_ATTRIBUTE, System.nanoTime());
+            if (RECORDER != null && RECORDED_ENDPOINTS.contains(request.pathInfo())) {
+                RECORDER.record(request.pathInfo(), request.queryString(),
+                        request.cookie(CLIENT_COOKIE));
+            }
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
@@ -109,37 +203,124 @@ public class MapServer {
         get("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            /* raster() does almost all the work for this API call */
+            MapData d = data;
+            long start = System.nanoTime();
+            RasterResult raster = d.rasterer.raster(params);
+            GRID_TIME.observeNanos(System.nanoTime() - start);
 
-            boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
+            boolean rasterSuccess = validateRaster(raster);
 
+            ByteArrayOutputStream png = null;
             if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+                String client = clientId(req, res);
+                LinkedList<Long> route = ROUTES.get(client);
+                LinkedList<Long> isochrone = ISOCHRONES.get(client);
+                png = RENDER_EXECUTOR.submit(() -> {
+                    /* The png image is written to the ByteArrayOutputStream */
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    writeImagesToOutputStream(d, raster, route, isochrone, os);
+                    return os;
+                }).get();
             }
 
-            /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
+            /* Stream the Json response, encoding the image on the way out. */
+            res.type(JSON_TYPE);
+            JsonResponses.writeRaster(res.raw().getOutputStream(), raster, png);
+            return "";
         });
 
         /* Define the routing endpoint for HTTP GET requests. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            //route = findAndSetRoute(params);
+            LinkedList<Long> route = Router.shortestPath(data.graph, params.get("start_lon"),
+                    params.get("start_lat"), params.get("end_lon"), params.get("end_lat"),
+                    getProfile(req));
+            String client = knownClientId(req, res);
+            if (client != null) {
+                ROUTES.put(client, route);
+            }
             return !route.isEmpty();
         });
 
+        /* Define the endpoint returning a route itself, for clients that draw it on the map
+         * on their own. The route is not kept for the client, so rasters do not draw it. */
+        get("/route_geometry", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
+            GraphDB graph = data.graph;
+            RoutingProfile profile = getProfile(req);
+            GraphDB.Position source = Router.snap(graph, params.get("start_lon"),
+                    params.get("start_lat"), profile);
+            GraphDB.Position destination = Router.snap(graph, params.get("end_lon"),
+                    params.get("end_lat"), profile);
+            int[] path = Router.cachedPath(graph, source, destination, profile);
+            res.type(JSON_TYPE);
+            JsonResponses.writeRoute(res.raw().getOutputStream(), graph, source, destination,
+                    path);
+            return "";
+        });
+
+        /* Define the endpoint returning the shortest route and up to two alternatives to it,
+         * all found by one forward and one backward search. Like /route_geometry, the
+         * routes are not kept for the client. */
+        get("/alternatives", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
+            GraphDB graph = data.graph;
+            RoutingProfile profile = getProfile(req);
+            GraphDB.Position source = Router.snap(graph, params.get("start_lon"),
+                    params.get("start_lat"), profile);
+            GraphDB.Position destination = Router.snap(graph, params.get("end_lon"),
+                    params.get("end_lat"), profile);
+            int[][] routes = source == null || destination == null ? new int[0][]
+                    : Router.alternatives(graph, source, destination, profile);
+            res.type(JSON_TYPE);
+            JsonResponses.writeRoutes(res.raw().getOutputStream(), graph, source, destination,
+                    routes);
+            return "";
+        });
+
+        /* Define the batch endpoint returning the distance between many pairs of points. */
+        get("/distance_matrix", (req, res) -> {
+            for (String param : REQUIRED_MATRIX_REQUEST_PARAMS) {
+                if (req.queryParams(param) == null) {
+                    halt(HALT_RESPONSE, "Request failed - parameters missing.");
+                }
+            }
+            double[][] sources = parsePoints(req.queryParams("sources"));
+            double[][] targets = parsePoints(req.queryParams("targets"));
+            if ((long) sources.length * targets.length > MAX_MATRIX_CELLS) {
+                halt(HALT_RESPONSE, "Incorrect parameters - at most " + MAX_MATRIX_CELLS
+                        + " sources times targets.");
+            }
+            return GSON.toJson(getDistanceMatrix(sources, targets, getProfile(req)));
+        });
+
+        /* Define the endpoint for the area reachable within a distance of a point. If the
+         * overlay parameter is given, the area is also drawn on this client's rasters. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            Map<String, Object> isochrone = getIsochrone(params.get("lat"), params.get("lon"),
+                    params.get("distance"), req.queryParams().contains("full"),
+                    getProfile(req));
+            if (req.queryParams().contains("overlay")) {
+                @SuppressWarnings("unchecked")
+                List<Long> hull = (List<Long>) isochrone.get("hull_ids");
+                String client = knownClientId(req, res);
+                if (client != null) {
+                    ISOCHRONES.put(client, new LinkedList<>(hull));
+                }
+            }
+            isochrone.remove("hull_ids");
+            return GSON.toJson(isochrone);
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            clearRoute(clientId(req, res));
             return true;
         });
 
@@ -147,15 +328,55 @@ public class MapServer {
         get("/search", (req, res) -> {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
-            Gson gson = new Gson();
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
-                return gson.toJson(data);
+                res.type(JSON_TYPE);
+                JsonResponses.writeLocations(res.raw().getOutputStream(),
+                        data.graph.locations(term));
+                return "";
             } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
-                return gson.toJson(matches);
+                /* Search for prefix matching strings, already serialized by the cache. */
+                return data.searchCache.keysWithPrefix(term);
+            }
+        });
+
+        /* Define the endpoint reloading the map data in the background, without a restart.
+         * The osm and img parameters name new files to load instead of the current ones;
+         * img may name a tile folder or a tile archive. */
+        post("/reload", (req, res) -> {
+            if (!isLocal(req)) {
+                halt(HALT_RESPONSE, "Request failed - reload is only allowed locally.");
+            }
+            MapData d = data;
+            String osmPath = req.queryParamOrDefault("osm", d.osmPath);
+            String imgRoot = MapData.tileRoot(req.queryParamOrDefault("img", d.imgRoot));
+            if (!new File(osmPath).isFile() || !new File(imgRoot).exists()) {
+                halt(HALT_RESPONSE, "Incorrect parameters - no such map data.");
+            }
+            File root = new File(imgRoot, MapData.ROOT_TILE);
+            if (new File(imgRoot).isDirectory() && !root.canRead()) {
+                halt(HALT_RESPONSE, "Incorrect parameters - " + imgRoot
+                        + " has no root tile.");
+            }
+            if (!reload(osmPath, imgRoot)) {
+                halt(HALT_RESPONSE, "Request failed - a reload is already in progress.");
+            }
+            res.status(202);
+            return true;
+        });
+
+        /* Define the endpoint exposing the server's metrics to Prometheus. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return Metrics.scrape();
+        });
+
+        /* Record the latency of every API call, including those that were halted. */
+        afterAfter((req, res) -> {
+            Long start = req.attribute(START_ATTRIBUTE);
+            if (start != null && TIMED_ENDPOINTS.contains(req.pathInfo())) {
+                Metrics.REQUESTS.histogram(req.pathInfo())
+                        .observeNanos(System.nanoTime() - start);
             }
         });
 
@@ -166,6 +387,24 @@ public class MapServer {
         });
     }
 
+    /**
+     * Runs each request handler on its own virtual thread when the JVM supports it (Java 21
+     * and later), unless disabled through the bearmaps.virtualThreads system property.
+     * Must be called before any route is defined.
+     */
+    private static void useVirtualThreads() {
+        if (!Boolean.parseBoolean(System.getProperty(VIRTUAL_THREADS_PROPERTY, "true"))) {
+            return;
+        }
+        VirtualThreadPool pool = VirtualThreadPool.create();
+        if (pool == null) {
+            System.out.println("Virtual threads are not supported; using Jetty's thread pool.");
+            return;
+        }
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY,
+                new EmbeddedJettyFactory().withThreadPool(pool));
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
@@ -192,13 +431,233 @@ public class MapServer {
         return params;
     }
 
+    /**
+     * Returns the routing profile named by the request's profile parameter, or the default
+     * profile if there is none.
+     * @param req HTTP Request
+     * @return The requested profile.
+     */
+    private static RoutingProfile getProfile(spark.Request req) {
+        try {
+            return RoutingProfile.parse(req.queryParams(PROFILE_PARAM));
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - unknown profile.");
+            return null;
+        }
+    }
+
+    /** Whether req comes from this machine. */
+    private static boolean isLocal(spark.Request req) {
+        try {
+            return InetAddress.getByName(req.ip()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts loading the map data from osmPath and imgRoot in the background and, once it
+     * is ready, makes it the data new requests are served from. Requests in flight finish
+     * on the old data. Every client's route and isochrone overlay is dropped, since it was
+     * found on the old data; caches of derived data notice the new graph version on their
+     * own. If the new graph turns out empty, e.g. because the file could not be parsed, or
+     * the tile archive cannot be opened, or the root tile cannot be read from the new
+     * tiles, the old data is kept.
+     * @return Whether a reload was started, i.e. none was in progress.
+     */
+    static boolean reload(String osmPath, String imgRoot) {
+        if (!RELOADING.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                MapData next = new MapData(osmPath, imgRoot);
+                if (next.graph.size() == 0) {
+                    System.out.println("Not reloading: " + osmPath + " has no roads.");
+                    return;
+                }
+                next.checkTiles();
+                data = next;
+                ROUTES.clear();
+                ISOCHRONES.clear();
+                System.out.println("Reloaded map data version " + next.version() + " from "
+                        + osmPath + " and " + imgRoot + ".");
+            } catch (UncheckedIOException e) {
+                System.out.println("Not reloading: " + e.getCause().getMessage());
+            } catch (IOException e) {
+                System.out.println("Not reloading: " + e.getMessage());
+            } finally {
+                RELOADING.set(false);
+            }
+        }, "map-reload");
+        loader.setDaemon(true);
+        loader.start();
+        return true;
+    }
+
+    /**
+     * Returns the id of the client making this request, issuing a new one in a cookie if the
+     * client does not have one yet.
+     */
+    private static String clientId(spark.Request req, spark.Response res) {
+        String id = req.cookie(CLIENT_COOKIE);
+        if (id == null || id.isEmpty()) {
+            id = UUID.randomUUID().toString();
+            res.cookie("/", CLIENT_COOKIE, id, -1, false);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the client making this request, or null if it had none and is only
+     * now issued one. Nothing need be stored for such a client: one that does not send
+     * cookies back, such as a script, could never see it again.
+     */
+    private static String knownClientId(spark.Request req, spark.Response res) {
+        String id = req.cookie(CLIENT_COOKIE);
+        if (id == null || id.isEmpty()) {
+            clientId(req, res);
+            return null;
+        }
+        return id;
+    }
+
+    /**
+     * Parses a list of points written as lat,lon pairs separated by semicolons.
+     * @param points The parameter value.
+     * @return One {lat, lon} array per point.
+     */
+    private static double[][] parsePoints(String points) {
+        String[] pairs = points.split(";");
+        double[][] result = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] latLon = pairs[i].split(",");
+            if (latLon.length != 2) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lat,lon pairs.");
+            }
+            try {
+                result[i] = new double[] {Double.parseDouble(latLon[0].trim()),
+                                          Double.parseDouble(latLon[1].trim())};
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Snaps every source and target to its closest vertex once, then computes the shortest
+     * distance from each source to each target with one search per source, or one backward
+     * search per target if there are fewer targets (see Router.distanceMatrix).
+     * @param sources {lat, lon} of each source point.
+     * @param targets {lat, lon} of each target point.
+     * @param profile The profile to route with.
+     * @return A map of results for the Json response as specified: <br>
+     * "sources"   -> Number[], the vertex id each source was snapped to. <br>
+     * "targets"   -> Number[], the vertex id each target was snapped to. <br>
+     * "distances" -> Number[][], the route weight from source i to target j at [i][j]: meters,
+     *                or seconds when driving. null if there is no route between them. <br>
+     */
+    public static Map<String, Object> getDistanceMatrix(double[][] sources, double[][] targets,
+                                                        RoutingProfile profile) {
+        GraphDB graph = data.graph;
+        int[] sourceIndices = snap(graph, sources, profile);
+        int[] targetIndices = snap(graph, targets, profile);
+        double[][] distances =
+                Router.distanceMatrix(graph, sourceIndices, targetIndices, profile);
+
+        Double[][] reachable = new Double[distances.length][targetIndices.length];
+        for (int i = 0; i < distances.length; i++) {
+            for (int j = 0; j < targetIndices.length; j++) {
+                if (distances[i][j] != Double.POSITIVE_INFINITY) {
+                    reachable[i][j] = distances[i][j];
+                }
+            }
+        }
+        Map<String, Object> results = new HashMap<>();
+        results.put("sources", ids(graph, sourceIndices));
+        results.put("targets", ids(graph, targetIndices));
+        results.put("distances", reachable);
+        return results;
+    }
+
+    /**
+     * Returns the dense index of the vertex closest to each {lat, lon} point among those the
+     * profile can route from.
+     */
+    private static int[] snap(GraphDB graph, double[][] points, RoutingProfile profile) {
+        int[] indices = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            indices[i] = snap(graph, points[i][0], points[i][1], profile);
+        }
+        return indices;
+    }
+
+    private static int snap(GraphDB graph, double lat, double lon, RoutingProfile profile) {
+        int v = graph.closestIndex(lon, lat, profile);
+        if (v < 0) {
+            halt(HALT_RESPONSE, "Request failed - no roads for this profile.");
+        }
+        return v;
+    }
+
+    private static long[] ids(GraphDB graph, int[] indices) {
+        long[] ids = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            ids[i] = graph.idOf(indices[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Finds every vertex within a route distance of the vertex closest to a point.
+     * @param lat Latitude of the point.
+     * @param lon Longitude of the point.
+     * @param distance Largest route weight to include: meters, or seconds when driving.
+     * @param full Whether to list every reachable vertex, not just the outline.
+     * @param profile The profile to route with.
+     * @return A map of results for the Json response as specified: <br>
+     * "source"   -> Number, the vertex id the point was snapped to. <br>
+     * "count"    -> Number, the number of reachable vertices. <br>
+     * "hull"     -> Number[][], [lon, lat] of each corner of the convex hull of the
+     *               reachable vertices, counterclockwise. <br>
+     * "hull_ids" -> Number[], the vertex id at each corner of the hull. <br>
+     * "vertices" -> Number[], the ids of all reachable vertices, only if full is set. <br>
+     */
+    public static Map<String, Object> getIsochrone(double lat, double lon, double distance,
+                                                   boolean full, RoutingProfile profile) {
+        GraphDB graph = data.graph;
+        int source = snap(graph, lat, lon, profile);
+        int[] reachable = Router.reachableWithin(graph, source, distance, profile);
+        int[] hull = graph.convexHull(reachable);
+
+        double[][] corners = new double[hull.length][];
+        List<Long> hullIds = new LinkedList<>();
+        for (int i = 0; i < hull.length; i++) {
+            corners[i] = new double[] {graph.lonAt(hull[i]), graph.latAt(hull[i])};
+            hullIds.add(graph.idOf(hull[i]));
+        }
+        Map<String, Object> results = new HashMap<>();
+        results.put("source", graph.idOf(source));
+        results.put("count", reachable.length);
+        results.put("hull", corners);
+        results.put("hull_ids", hullIds);
+        if (full) {
+            results.put("vertices", ids(graph, reachable));
+        }
+        return results;
+    }
+
     /** Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
-    private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+    private static void writeImagesToOutputStream(MapData d, RasterResult raster,
+                                                  LinkedList<Long> route,
+                                                  LinkedList<Long> isochrone,
                                                   ByteArrayOutputStream os) {
-        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        GraphDB graph = d.graph;
+        String[][] renderGrid = raster.renderGrid;
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
 
@@ -206,10 +665,15 @@ public class MapServer {
                 numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
         Graphics graphic = img.getGraphics();
         int x = 0, y = 0;
+        long start = System.nanoTime();
+        long loadNanos = 0;
 
         for (int r = 0; r < numVertTiles; r += 1) {
             for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(renderGrid[r][c]), x, y, null);
+                long loadStart = System.nanoTime();
+                BufferedImage tile = getImage(d, renderGrid[r][c]);
+                loadNanos += System.nanoTime() - loadStart;
+                graphic.drawImage(tile, x, y, null);
                 x += MapServer.TILE_SIZE;
                 if (x >= img.getWidth()) {
                     x = 0;
@@ -219,14 +683,24 @@ public class MapServer {
         }
 
         /* If there is a route, draw it. */
-        double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
-        double ullat = (double) rasteredImageParams.get("raster_ul_lat"); //tiles.get(0).ulp;
-        double lrlon = (double) rasteredImageParams.get("raster_lr_lon"); //tiles.get(0).ulp;
-        double lrlat = (double) rasteredImageParams.get("raster_lr_lat"); //tiles.get(0).ulp;
+        double ullon = raster.ulLon; //tiles.get(0).ulp;
+        double ullat = raster.ulLat; //tiles.get(0).ulp;
+        double lrlon = raster.lrLon; //tiles.get(0).ulp;
+        double lrlat = raster.lrLat; //tiles.get(0).ulp;
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
+        /* If there is an isochrone overlay, fill it in below the route. */
+        if (!isochrone.isEmpty() && inGraph(graph, isochrone)) {
+            Polygon area = new Polygon();
+            for (long v : isochrone) {
+                area.addPoint((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
+                              (int) ((ullat - graph.lat(v)) * (1 / hdpp)));
+            }
+            graphic.setColor(MapServer.ISOCHRONE_FILL_COLOR);
+            graphic.fillPolygon(area);
+        }
+        if (!route.isEmpty() && inGraph(graph, route)) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
@@ -240,23 +714,38 @@ public class MapServer {
             });
         }
 
-        rasteredImageParams.put("raster_width", img.getWidth());
-        rasteredImageParams.put("raster_height", img.getHeight());
+        long composed = System.nanoTime();
+        TILE_LOAD_TIME.observeNanos(loadNanos);
+        COMPOSE_TIME.observeNanos(composed - start - loadNanos);
+        Metrics.TILES.histogram().observe(numVertTiles * numHorizTiles);
 
         try {
             ImageIO.write(img, "png", os);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        ENCODE_TIME.observeNanos(System.nanoTime() - composed);
+
+    }
 
+    /**
+     * Whether every one of vertices is in graph. Overlays found on map data that has since
+     * been reloaded may not be, and are not drawn.
+     */
+    private static boolean inGraph(GraphDB graph, List<Long> vertices) {
+        for (long v : vertices) {
+            if (graph.indexOf(v) < 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private static BufferedImage getImage(String imgPath) {
+    private static BufferedImage getImage(MapData d, String imgPath) {
         BufferedImage tileImg = null;
         if (tileImg == null) {
             try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
+                tileImg = d.readTile(imgPath);
             } catch (IOException | NullPointerException e) {
                 e.printStackTrace();
             }
@@ -265,10 +754,11 @@ public class MapServer {
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Clear the current found route and isochrone overlay of the given client, if they exist.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    public static void clearRoute(String clientId) {
+        ROUTES.remove(clientId);
+        ISOCHRONES.remove(clientId);
     }
 
     /**
@@ -280,7 +770,7 @@ public class MapServer {
      */
     public static List<String> getLocationsByPrefix(String prefix) {
 
-        return graph.getTrie().keysWithPrefix(prefix);
+        return data.graph.getTrie().keysWithPrefix(prefix);
     }
 
     /**
@@ -296,25 +786,17 @@ public class MapServer {
      * "id" -> Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return graph.getlocations(locationName);
+        return data.graph.getlocations(locationName);
     }
 
     /** Validates that Rasterer has returned a result that can be rendered.
-     * @param rip : Parameters provided by the rasterer
+     * @param raster : Result provided by the rasterer
      */
-    private static boolean validateRasteredImgParams(Map<String, Object> rip) {
-        for (String p : REQUIRED_RASTER_RESULT_PARAMS) {
-            if (!rip.containsKey(p)) {
-                System.out.println("Your rastering result is missing the " + p + " field.");
-                return false;
-            }
-        }
-        if (rip.containsKey("query_success")) {
-            boolean success = (boolean) rip.get("query_success");
-            if (!success) {
-                System.out.println("query_success was reported as a failure");
-                return false;
-            }
+    private static boolean validateRaster(RasterResult raster) {
+        if (!raster.querySuccess()) {
+            Metrics.RASTER_FAILURES.counter().increment();
+            System.out.println("query_success was reported as a failure");
+            return false;
         }
         return true;
     }
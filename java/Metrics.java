@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide metrics, written out by the /metrics endpoint in the Prometheus text format.
+ * Each family is one metric name with at most one label, and has a child per label value,
+ * created on first use. Histograms and counters are updated by the code they measure, which
+ * should look its children up once and keep them; values read through a supplier, such as
+ * the route cache statistics, are computed when scraped.
+ */
+final class Metrics {
+    private static final List<Family> FAMILIES = new CopyOnWriteArrayList<>();
+
+    /** Bucket bounds for durations in seconds: 1, 2 and 5 per decade from 10 us to 10 s. */
+    static final double[] SECONDS = bounds(-5, 1);
+    /** Bucket bounds for numbers of things: 1, 2 and 5 per decade from 1 to 1000000. */
+    static final double[] COUNTS = bounds(0, 6);
+
+    static final Family REQUESTS = new Family("bearmaps_request_seconds", "histogram",
+            "endpoint", "Time to handle a request, by endpoint.", SECONDS);
+    static final Family PHASES = new Family("bearmaps_phase_seconds", "histogram",
+            "phase", "Time spent in each phase of handling a request.", SECONDS);
+    static final Family SETTLED = new Family("bearmaps_route_settled_vertices", "histogram",
+            null, "Vertices settled by each route search.", COUNTS);
+    static final Family TILES = new Family("bearmaps_raster_tiles", "histogram",
+            null, "Tiles composed into each rastered image.", COUNTS);
+    static final Family RASTER_FAILURES = new Family("bearmaps_raster_failures_total",
+            "counter", null, "Raster requests whose query could not be rastered.", null);
+    static final Family ROUTE_CACHE_HITS = new Family("bearmaps_route_cache_hits_total",
+            "counter", "profile", "Routes found in the route cache.", null);
+    static final Family ROUTE_CACHE_MISSES = new Family("bearmaps_route_cache_misses_total",
+            "counter", "profile", "Routes that had to be searched for.", null);
+
+    static final Family UNREACHABLE = new Family("bearmaps_route_unreachable_total",
+            "counter", null, "Routes rejected without a search, their ends not connected.",
+            null);
+    static final Family MAP_VERSION = new Family("bearmaps_map_version", "gauge", null,
+            "Version of the map data being served; it goes up with every reload.", null);
+
+    private Metrics() {
+    }
+
+    /** A metric name and its children, one per value of its label. */
+    static final class Family {
+        private final String name;
+        private final String type;
+        private final String label;
+        private final String help;
+        private final double[] bounds;
+        private final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String type, String label, String help, double[] bounds) {
+            this.name = name;
+            this.type = type;
+            this.label = label;
+            this.help = help;
+            this.bounds = bounds;
+            /* A family without a label has one child, reported as zero until first used. */
+            if (label == null && bounds != null) {
+                histogram();
+            } else if (label == null) {
+                counter();
+            }
+            FAMILIES.add(this);
+        }
+
+        /** Returns the histogram of this family with the given label value. */
+        Histogram histogram(String value) {
+            return (Histogram) children.computeIfAbsent(value, v -> new Histogram(bounds));
+        }
+
+        /** Returns the histogram of this family, which has no label. */
+        Histogram histogram() {
+            return histogram("");
+        }
+
+        /** Returns the counter of this family with the given label value. */
+        LongAdder counter(String value) {
+            return (LongAdder) children.computeIfAbsent(value, v -> new LongAdder());
+        }
+
+        /** Returns the counter of this family, which has no label. */
+        LongAdder counter() {
+            return counter("");
+        }
+
+        /** Makes the child with the given label value report whatever supplier returns. */
+        void register(String value, DoubleSupplier supplier) {
+            children.put(value, supplier);
+        }
+
+        private void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, Object> child : children.entrySet()) {
+                String labels = child.getKey().isEmpty() ? ""
+                        : label + "=\"" + child.getKey() + "\"";
+                Object metric = child.getValue();
+                if (metric instanceof Histogram) {
+                    ((Histogram) metric).write(out, name, labels);
+                    continue;
+                }
+                out.append(name);
+                if (!labels.isEmpty()) {
+                    out.append('{').append(labels).append('}');
+                }
+                out.append(' ');
+                if (metric instanceof LongAdder) {
+                    out.append(((LongAdder) metric).sum());
+                } else {
+                    out.append(((DoubleSupplier) metric).getAsDouble());
+                }
+                out.append('\n');
+            }
+        }
+    }
+
+    /** Returns every metric in the Prometheus text exposition format. */
+    static String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : FAMILIES) {
+            family.write(out);
+        }
+        return out.toString();
+    }
+
+    /** Returns 1, 2 and 5 times each power of ten from 10^from to 10^to, ending at 10^to. */
+    private static double[] bounds(int from, int to) {
+        List<Double> bounds = new ArrayList<>();
+        for (int exponent = from; exponent <= to; exponent++) {
+            for (int mantissa : new int[] {1, 2, 5}) {
+                if (exponent < to || mantissa == 1) {
+                    bounds.add(Double.parseDouble(mantissa + "e" + exponent));
+                }
+            }
+        }
+        double[] result = new double[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+}
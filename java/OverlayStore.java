@@ -0,0 +1,122 @@
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Holds one overlay per client, a list of vertex ids drawn on that client's rasters, such
+ * as its current route or the outline of an isochrone, so that concurrent users of the
+ * server do not overwrite each other's overlays. Overlays that have not been touched for
+ * ttlMillis are dropped, and the store never holds more than maxClients of them; when
+ * full, the least recently used one is evicted.
+ *
+ * Like RouteCache, the store is split into STRIPES access-ordered LRUs, each with its own
+ * lock and an equal share of maxClients, and a client's overlay lives in the stripe its id
+ * hashes to. Storing an overlay evicts at most the eldest one of its stripe, so no call
+ * ever scans the store, and expired overlays are dropped as they reach the eldest end or
+ * are asked for.
+ */
+class OverlayStore {
+    /** Number of stripes, a power of two. */
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final long ttlMillis;
+
+    private static class Overlay {
+        private final LinkedList<Long> ids;
+        private long lastAccess;
+
+        private Overlay(LinkedList<Long> ids, long now) {
+            this.ids = ids;
+            this.lastAccess = now;
+        }
+    }
+
+    /** One LRU of the store, locked on itself. */
+    private static class Stripe {
+        private final LinkedHashMap<String, Overlay> overlays;
+
+        Stripe(int capacity, long ttlMillis) {
+            this.overlays = new LinkedHashMap<String, Overlay>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Overlay> eldest) {
+                    return size() > capacity
+                            || System.currentTimeMillis() - eldest.getValue().lastAccess
+                            > ttlMillis;
+                }
+            };
+        }
+    }
+
+    OverlayStore(int maxClients, long ttlMillis) {
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, (maxClients + STRIPES - 1) / STRIPES),
+                                    ttlMillis);
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the vertex ids last stored for client, or an empty list if there are none.
+     * The returned list must not be modified.
+     */
+    LinkedList<Long> get(String client) {
+        Stripe stripe = stripe(client);
+        long now = System.currentTimeMillis();
+        synchronized (stripe) {
+            Overlay e = stripe.overlays.get(client);
+            if (e == null) {
+                return new LinkedList<>();
+            }
+            if (now - e.lastAccess > ttlMillis) {
+                stripe.overlays.remove(client);
+                return new LinkedList<>();
+            }
+            e.lastAccess = now;
+            return e.ids;
+        }
+    }
+
+    /** Stores ids as the overlay of client, replacing any previous one. */
+    void put(String client, LinkedList<Long> ids) {
+        Stripe stripe = stripe(client);
+        long now = System.currentTimeMillis();
+        synchronized (stripe) {
+            stripe.overlays.put(client, new Overlay(ids, now));
+        }
+    }
+
+    /** Forgets the overlay of client. */
+    void remove(String client) {
+        Stripe stripe = stripe(client);
+        synchronized (stripe) {
+            stripe.overlays.remove(client);
+        }
+    }
+
+    /** Forgets every overlay, e.g. after the map data has changed. */
+    void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.overlays.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.overlays.size();
+            }
+        }
+        return size;
+    }
+
+    /** Returns the stripe of client, spreading the bits of its id's hash code. */
+    private Stripe stripe(String client) {
+        int h = client.hashCode() * 0x9e3779b9;
+        return stripes[h >>> (Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES))];
+    }
+}
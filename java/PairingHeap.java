@@ -0,0 +1,169 @@
+/**
+ * Pairing heap of int items in the range [0, capacity) with double priorities. The tree is
+ * kept in primitive arrays indexed by item (first child, next and previous sibling), so
+ * no operation allocates. Lowering a priority cuts the item's subtree and links it with
+ * the root in O(1), which suits searches that decrease keys far more often than they
+ * remove the minimum. removeMin does the usual two-pass pairing of the root's children.
+ */
+class PairingHeap implements IndexedPQ {
+    private static final int NONE = -1;
+
+    private final double[] priorities;
+    private final int[] child;
+    private final int[] next;
+    /** The previous sibling of an item, or its parent if it is a first child. */
+    private final int[] prev;
+    private final boolean[] inHeap;
+    /** Scratch space for removeMin and clear. */
+    private final int[] stack;
+    private int root;
+    private int size;
+
+    PairingHeap(int capacity) {
+        priorities = new double[capacity];
+        child = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        inHeap = new boolean[capacity];
+        stack = new int[capacity];
+        root = NONE;
+        size = 0;
+    }
+
+    @Override
+    public void insert(int item, double priority) {
+        priorities[item] = priority;
+        child[item] = NONE;
+        next[item] = NONE;
+        prev[item] = NONE;
+        inHeap[item] = true;
+        root = root == NONE ? item : link(root, item);
+        size += 1;
+    }
+
+    @Override
+    public int peek() {
+        return root;
+    }
+
+    @Override
+    public int removeMin() {
+        int min = root;
+        inHeap[min] = false;
+        size -= 1;
+        root = mergePairs(child[min]);
+        return min;
+    }
+
+    @Override
+    public void changePriority(int item, double priority) {
+        if (priority < priorities[item]) {
+            decrease(item, priority);
+        } else {
+            /* Raising a priority may break heap order below the item, so reinsert it. */
+            decrease(item, Double.NEGATIVE_INFINITY);
+            removeMin();
+            insert(item, priority);
+        }
+    }
+
+    @Override
+    public void insertOrDecrease(int item, double priority) {
+        if (!inHeap[item]) {
+            insert(item, priority);
+        } else if (priority < priorities[item]) {
+            decrease(item, priority);
+        }
+    }
+
+    @Override
+    public boolean contains(int item) {
+        return inHeap[item];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        int top = 0;
+        if (root != NONE) {
+            stack[top++] = root;
+        }
+        while (top > 0) {
+            int x = stack[--top];
+            inHeap[x] = false;
+            for (int c = child[x]; c != NONE; c = next[c]) {
+                stack[top++] = c;
+            }
+        }
+        root = NONE;
+        size = 0;
+    }
+
+    private void decrease(int item, double priority) {
+        priorities[item] = priority;
+        if (item == root) {
+            return;
+        }
+        /* Cut item's subtree out of its sibling list and link it with the root. */
+        int p = prev[item];
+        if (child[p] == item) {
+            child[p] = next[item];
+        } else {
+            next[p] = next[item];
+        }
+        if (next[item] != NONE) {
+            prev[next[item]] = p;
+        }
+        next[item] = NONE;
+        prev[item] = NONE;
+        root = link(root, item);
+    }
+
+    /** Links two detached trees, making the one with the larger priority a child. */
+    private int link(int a, int b) {
+        if (priorities[b] < priorities[a]) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        next[b] = child[a];
+        if (child[a] != NONE) {
+            prev[child[a]] = b;
+        }
+        prev[b] = a;
+        child[a] = b;
+        return a;
+    }
+
+    /** Two-pass pairing of the sibling list starting at first; returns the new root. */
+    private int mergePairs(int first) {
+        if (first == NONE) {
+            return NONE;
+        }
+        int count = 0;
+        int x = first;
+        while (x != NONE) {
+            int a = x;
+            int b = next[a];
+            x = b == NONE ? NONE : next[b];
+            next[a] = NONE;
+            prev[a] = NONE;
+            if (b == NONE) {
+                stack[count++] = a;
+            } else {
+                next[b] = NONE;
+                prev[b] = NONE;
+                stack[count++] = link(a, b);
+            }
+        }
+        int merged = stack[--count];
+        while (count > 0) {
+            merged = link(stack[--count], merged);
+        }
+        return merged;
+    }
+}
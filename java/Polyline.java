@@ -0,0 +1,57 @@
+/**
+ * Encodes routes in the Encoded Polyline Algorithm Format of the Google Maps APIs, which
+ * most web map libraries can decode. Each point is written as its latitude and longitude
+ * rounded to 5 decimal places (about a meter), each as the difference from the previous
+ * point in base 64 groups of 5 bits, so a route through a city takes a few bytes per point.
+ */
+final class Polyline {
+    private static final double PRECISION = 1e5;
+
+    private Polyline() {
+    }
+
+    /**
+     * Returns the encoded polyline from source through the vertices of g with the given
+     * dense indices to destination. An end that is a vertex, which path already starts or
+     * ends at, is left out.
+     */
+    static String encode(GraphDB g, GraphDB.Position source, GraphDB.Position destination,
+                         int[] path) {
+        StringBuilder out = new StringBuilder(6 * (path.length + 2));
+        /* prev holds the latitude and longitude of the last point, in units of PRECISION. */
+        long[] prev = new long[2];
+        if (source.edge >= 0) {
+            encode(out, prev, source.lat(), source.lon());
+        }
+        for (int v : path) {
+            encode(out, prev, g.latAt(v), g.lonAt(v));
+        }
+        if (destination.edge >= 0) {
+            encode(out, prev, destination.lat(), destination.lon());
+        }
+        return out.toString();
+    }
+
+    /** Appends the point at lat, lon as the difference from the point prev. */
+    private static void encode(StringBuilder out, long[] prev, double lat, double lon) {
+        long latE5 = Math.round(lat * PRECISION);
+        long lonE5 = Math.round(lon * PRECISION);
+        encode(out, latE5 - prev[0]);
+        encode(out, lonE5 - prev[1]);
+        prev[0] = latE5;
+        prev[1] = lonE5;
+    }
+
+    /**
+     * Appends one signed value: shifted left one bit and inverted if negative, then in
+     * groups of 5 bits from the lowest, each but the last marked with 0x20, offset by 63.
+     */
+    private static void encode(StringBuilder out, long value) {
+        long bits = value < 0 ? ~(value << 1) : value << 1;
+        while (bits >= 0x20) {
+            out.append((char) ((0x20 | (bits & 0x1f)) + 63));
+            bits >>= 5;
+        }
+        out.append((char) (bits + 63));
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The result of rastering a query box: the grid of tile files that covers it, the bounds
+ * of the image the tiles make up and their quadtree depth. getMapRaster hands the same
+ * fields to the front end as a map; MapServer writes them out directly with JsonResponses.
+ */
+class RasterResult {
+    /** The result of a query that could not be rastered, e.g. one outside the map. */
+    static final RasterResult FAILED = new RasterResult(null, 0, 0, 0, 0, 0);
+
+    /** The files to display, by row from the top and column from the left. */
+    final String[][] renderGrid;
+    final double ulLon;
+    final double ulLat;
+    final double lrLon;
+    final double lrLat;
+    /** The 1-indexed quadtree depth of the tiles, the length of their names. */
+    final int depth;
+
+    RasterResult(String[][] renderGrid, double ulLon, double ulLat, double lrLon, double lrLat,
+                 int depth) {
+        this.renderGrid = renderGrid;
+        this.ulLon = ulLon;
+        this.ulLat = ulLat;
+        this.lrLon = lrLon;
+        this.lrLat = lrLat;
+        this.depth = depth;
+    }
+
+    /** Whether the query was rastered. */
+    boolean querySuccess() {
+        return renderGrid != null;
+    }
+
+    /** Width in pixels of the rastered image. */
+    int width() {
+        return renderGrid[0].length * MapServer.TILE_SIZE;
+    }
+
+    /** Height in pixels of the rastered image. */
+    int height() {
+        return renderGrid.length * MapServer.TILE_SIZE;
+    }
+
+    /** Returns the fields as the map getMapRaster specifies, with nulls if it failed. */
+    Map<String, Object> toMap() {
+        Map<String, Object> results = new HashMap<>();
+        boolean success = querySuccess();
+        results.put("render_grid", renderGrid);
+        results.put("raster_ul_lon", success ? ulLon : null);
+        results.put("raster_ul_lat", success ? ulLat : null);
+        results.put("raster_lr_lon", success ? lrLon : null);
+        results.put("raster_lr_lat", success ? lrLat : null);
+        results.put("depth", success ? depth : null);
+        results.put("query_success", success);
+        return results;
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
@@ -14,12 +13,14 @@ public class Rasterer {
     // Recommended: QuadTree instance variable. You'll need to make
     //              your own QuadTree since there is no built-in quadtree in Java.
     private QuadTree quadTree;
+    /** Directory the files of the render grid are in, ending with a slash. */
+    private final String imgRoot;
 
     /** imgRoot is the name of the directory containing the images.
      *  You may not actually need this for your class. */
     public Rasterer(String imgRoot) {
-        imgRoot = "";
-        Tile val = new Tile(imgRoot, MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+        this.imgRoot = imgRoot;
+        Tile val = new Tile("", MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
                                 MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT);
         quadTree = new QuadTree(val);
 
@@ -58,9 +59,16 @@ public class Rasterer {
      * @see #REQUIRED_RASTER_REQUEST_PARAMS
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
+        return raster(params).toMap();
+    }
 
-        // System.out.println(params);
-        Map<String, Object> results = new HashMap<>();
+    /**
+     * Same as getMapRaster, but returns the result as a RasterResult rather than a map.
+     * @param params Map of the HTTP GET request's query parameters - the query box and
+     *               the user viewport width and height.
+     * @return The grid of tiles, or RasterResult.FAILED if the query cannot be rastered.
+     */
+    RasterResult raster(Map<String, Double> params) {
         String[][] files;
         QuadTree.TreeNode[][] tiles;
         double ullat = params.get("ullat"),
@@ -69,16 +77,8 @@ public class Rasterer {
                lrlon = params.get("lrlon"),
                width = params.get("w");
 
-        results.put("render_grid", null);
-        results.put("raster_ul_lon", null);
-        results.put("raster_ul_lat", null);
-        results.put("raster_lr_lon", null);
-        results.put("raster_lr_lat", null);
-        results.put("depth", null);
-        results.put("query_success", false);
-
         if (!checkValid(ullat, ullon, lrlat, lrlon)) {
-            return results;
+            return RasterResult.FAILED;
         }
 
         List<QuadTree.TreeNode> intersections = bfs(ullat, ullon, lrlat, lrlon, width);
@@ -97,22 +97,18 @@ public class Rasterer {
         for (int i = rows - 1; i >= 0; i--) {
             for (int j = 0; j < cols; j++) {
                 String name = intersections.get(index).value.getName();
-                name = "img/" + name + ".png";
+                name = imgRoot + name + ".png";
                 files[i][j] = name;
                 tiles[i][j] = intersections.get(index);
                 index += 1;
             }
         }
         //System.out.println(files);
-        results.put("render_grid", files);
-        results.put("raster_ul_lon", tiles[0][0].value.getUpperLeftLon());
-        results.put("raster_ul_lat", tiles[0][0].value.getUpperLeftLat());
-        results.put("raster_lr_lon", tiles[rows - 1][cols - 1].value.getLowerRightLon());
-        results.put("raster_lr_lat", tiles[rows - 1][cols - 1].value.getLowerRightLat());
-        results.put("depth", tiles[0][0].value.getName().length());
-        results.put("query_success", true);
-
-        return results;
+        return new RasterResult(files, tiles[0][0].value.getUpperLeftLon(),
+                tiles[0][0].value.getUpperLeftLat(),
+                tiles[rows - 1][cols - 1].value.getLowerRightLon(),
+                tiles[rows - 1][cols - 1].value.getLowerRightLat(),
+                tiles[0][0].value.getName().length());
     }
 
     private boolean checkValid(double ullat1, double ullon1, double lrlat1, double lrlon1) {
@@ -0,0 +1,150 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Appends the API calls MapServer receives to a log, one per line: the milliseconds since
+ * recording started, a tab, the path with its query string, and, if the call came with a
+ * client id cookie, a tab and the id, so that a replayed call is drawn with the same
+ * client's route and isochrone overlays. LoadReplay sends the calls in a log to a server
+ * again. Recording is off unless the bearmaps.recordRequests system property names the
+ * file to append to. When it names an existing log, the offsets carry on from its last
+ * line, so the log still replays in order.
+ *
+ * Requests only queue their line; a background thread writes the lines out and flushes
+ * whenever it has caught up, so a slow disk never holds up a request. If the queue is
+ * full, lines are dropped and counted instead.
+ */
+class RequestRecorder {
+    /** At most this many lines wait to be written. */
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    /** Queued by close to stop the writer thread once the lines before it are written. */
+    private static final String STOP = new String("");
+
+    private final Writer out;
+    private final long start;
+    private final BlockingQueue<String> lines;
+    private final LongAdder dropped;
+    private final Thread writer;
+    private volatile boolean failed;
+
+    private RequestRecorder(Writer out, long firstOffset) {
+        this.out = out;
+        this.start = System.currentTimeMillis() - firstOffset;
+        this.lines = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        this.dropped = new LongAdder();
+        this.writer = new Thread(this::writeLines, "request-recorder");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Returns a recorder appending to the file at path, or null if path is null or the file
+     * cannot be opened.
+     */
+    static RequestRecorder create(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            long offset = lastOffset(new File(path));
+            RequestRecorder recorder = new RequestRecorder(
+                    new BufferedWriter(new FileWriter(path, true)), offset);
+            recorder.writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(recorder::close));
+            System.out.println("Recording requests to " + path + " from " + offset + " ms.");
+            return recorder;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Returns the offset of the last call logged in file, or 0 if it logs none. */
+    private static long lastOffset(File file) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        long offset = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                try {
+                    offset = tab > 0 ? Long.parseLong(line.substring(0, tab)) : offset;
+                } catch (NumberFormatException e) {
+                    /* Not a call; keep the offset of the last one. */
+                }
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Queues a call to path with the given query string and client id, either of which may
+     * be null, to be logged.
+     */
+    void record(String path, String query, String client) {
+        if (failed) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(path.length() + 32);
+        line.append(System.currentTimeMillis() - start).append('\t').append(path);
+        if (query != null) {
+            line.append('?').append(query);
+        }
+        if (client != null && !client.isEmpty()) {
+            line.append('\t').append(client);
+        }
+        if (!lines.offer(line.append('\n').toString())) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes queued lines until close stops it, flushing whenever the queue runs empty, so
+     * a log is complete up to the moment the server stops.
+     */
+    private void writeLines() {
+        try {
+            for (String line = lines.take(); line != STOP; line = lines.take()) {
+                out.write(line);
+                if (lines.isEmpty()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            /* Stop recording rather than fail every request from now on. */
+            failed = true;
+            lines.clear();
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Writes out the lines still queued and closes the log. */
+    private void close() {
+        try {
+            if (writer.isAlive()) {
+                lines.put(STOP);
+                writer.join();
+            }
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped.sum() > 0) {
+            System.out.println("Dropped " + dropped.sum() + " requests from the recording.");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of routes keyed on a pair of ints identifying where the route starts
+ * and ends once snapped, so that a popular route only costs the snapping step after it has
+ * been found once. Router keys them on the snapped road positions (see Router.key). Paths
+ * are stored as compact int[] arrays of the dense vertex indices of the graph they were
+ * found in. The cache remembers the version of the graph its routes belong to and empties
+ * itself when asked about a newer one; requests still running on an older graph bypass it.
+ *
+ * The cache is split into STRIPES independent LRUs, each with its own lock and an equal
+ * share of the capacity, and a route lives in the stripe its key hashes to. Concurrent
+ * requests only wait for each other when their routes share a stripe, at the price of
+ * evicting the least recently used route of a stripe rather than of the whole cache.
+ */
+class RouteCache {
+    /** Number of stripes, a power of two. */
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /** One LRU of the cache, locked on itself, with the graph version of its routes. */
+    private static class Stripe {
+        private final LinkedHashMap<Long, int[]> routes;
+        private long version;
+
+        Stripe(int capacity) {
+            this.routes = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+    }
+
+    RouteCache(int capacity) {
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, (capacity + STRIPES - 1) / STRIPES));
+        }
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /**
+     * Returns the cached route from source to destination in g, or null if there is none.
+     * Callers must not modify the returned array.
+     */
+    int[] get(GraphDB g, int source, int destination) {
+        long key = key(source, destination);
+        Stripe stripe = stripe(key);
+        int[] path;
+        synchronized (stripe) {
+            if (g.version() > stripe.version) {
+                stripe.routes.clear();
+                stripe.version = g.version();
+            }
+            path = g.version() == stripe.version ? stripe.routes.get(key) : null;
+        }
+        if (path == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return path;
+    }
+
+    /** Remembers path as the route from source to destination in g. */
+    void put(GraphDB g, int source, int destination, int[] path) {
+        long key = key(source, destination);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            if (g.version() == stripe.version) {
+                stripe.routes.put(key, path);
+            }
+        }
+    }
+
+    /** Empties the cache, e.g. after the graph has changed. */
+    void invalidate() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.routes.clear();
+            }
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /** Fraction of lookups that found a route, or 0 if there have been none. */
+    double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.routes.size();
+            }
+        }
+        return size;
+    }
+
+    /** Returns the stripe of key, spreading the bits of both of its halves. */
+    private Stripe stripe(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9e3779b9;
+        return stripes[h >>> (Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES))];
+    }
+
+    private static long key(int source, int destination) {
+        return ((long) source << 32) | (destination & 0xffffffffL);
+    }
+}
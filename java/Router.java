@@ -1,6 +1,11 @@
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.LinkedList;
-import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * This class provides a shortestPath method for finding routes between two points
@@ -9,68 +14,1018 @@ import java.util.HashSet;
  * Your code will probably not be fast enough to pass the autograder unless you use A*.
  * The difference between A* and Dijkstra's is only a couple of lines of code, and boils
  * down to the priority you use to order your vertices.
+ *
+ * Routes minimize the weight of a RoutingProfile, SHORTEST by default: every edge is
+ * weighted by the profile's weight, computed once when the graph is built, and A* is guided
+ * by the straight-line distance through the Earth scaled by the profile's heuristicScale,
+ * which never overestimates the remaining weight.
+ *
+ * Searches between two points only settle junctions, following the chains of shape points
+ * between them as single edges (see GraphDB). A source in the middle of a chain is left by
+ * walking the chain both ways, and a target in the middle of a chain is entered from the
+ * junctions at either end of it. Routes are expanded back to every vertex on them.
+ * Points are snapped onto roads, not vertices: a route search starts from both ends of the
+ * start's road segment at the weight of the part of the segment between, and ends at
+ * whichever end of the destination's segment leads there at the least total weight.
+ * Targets outside the source's component (see GraphDB.Weights) are known to be unreachable
+ * and are not searched for at all.
+ *
+ * Router keeps no state between calls on a shared object: every search borrows a
+ * SearchState of its own from a pool and gives it back when done, so shortestPath may be
+ * called from many request threads at once on a shared GraphDB.
  */
 public class Router {
     /**
-     * Return a LinkedList of <code>Long</code>s representing the shortest path from st to dest, 
-     * where the longs are node IDs.
+     * Priority queues Router can search with. The default is BINARY; it can be changed with
+     * setQueue or the bearmaps.router.queue system property. RouterBenchmark compares them.
+     * LAZY does not decrease keys at all: it pushes a vertex again whenever its distance
+     * improves and skips the stale entries as they are popped.
      */
-    private static HashMap<Long, Double> distTo = new HashMap<>();
-    private static HashMap<Long, Long> edgeTo = new HashMap<>();
-    private static ArrayHeap<Long> pq = new ArrayHeap<>();
-    private static HashSet<Long> pqValues = new HashSet<>();
+    enum Queue {
+        BINARY, QUATERNARY, PAIRING, LAZY;
+
+        /** Returns a new decrease-key queue of this type; LAZY uses a LazyMinHeap instead. */
+        IndexedPQ create(int capacity) {
+            switch (this) {
+                case QUATERNARY:
+                    return new DaryHeap(4, capacity);
+                case PAIRING:
+                    return new PairingHeap(capacity);
+                default:
+                    return new IndexedMinHeap(capacity);
+            }
+        }
+    }
+
+    private static volatile Queue queue =
+            Queue.valueOf(System.getProperty("bearmaps.router.queue", Queue.BINARY.name()));
 
+    /**
+     * Mutable bookkeeping of A* searches over the dense vertex indices of one graph.
+     * Arrays are reused from search to search; a vertex's entries are only valid if its
+     * mark equals the current search number, which saves clearing them every time.
+     */
+    private static class SearchState {
+        private final GraphDB g;
+        private final Queue queueType;
+        private final double[] distTo;
+        private final int[] edgeTo;
+        /** stepEdges[v] is the first edge of the walk from edgeTo[v] to v. */
+        private final int[] stepEdges;
+        private final int[] marks;
+        /** targetMarks[v] == search if v is a target of the current search. */
+        private final int[] targetMarks;
+        /** Vertices settled so far by the current reachability search, in order. */
+        private final int[] settled;
+        /**
+         * Entries into targets in the middle of a chain, from the junctions at its ends.
+         * If entryMarks[v] == search, entryHeads[v] is the first entry from junction v and
+         * entryNexts links it to the next. Entry i reaches entryTargets[i] at entryCosts[i]
+         * more than the junction, leaving the junction by entryEdges[i].
+         */
+        private final int[] entryMarks;
+        private final int[] entryHeads;
+        private int[] entryTargets;
+        private int[] entryEdges;
+        private int[] entryNexts;
+        private double[] entryCosts;
+        private int numEntries;
+        private final IndexedPQ pq;
+        private final LazyMinHeap lazy;
+        private int search;
+        /* Weights and destinations of the current search, which is headed for whichever of
+         * the two destinations is closer; destination is -1 for Dijkstra. */
+        private float[] edgeWeights;
+        private float[] chainWeights;
+        private double heuristicScale;
+        private int destination;
+        private int otherDestination;
+        /** Plateau of each vertex settled by a backward search for alternatives. */
+        private int[] plateaus;
+
+        private SearchState(GraphDB g, Queue queueType) {
+            this.g = g;
+            this.queueType = queueType;
+            int n = g.size();
+            distTo = new double[n];
+            edgeTo = new int[n];
+            stepEdges = new int[n];
+            marks = new int[n];
+            targetMarks = new int[n];
+            settled = new int[n];
+            entryMarks = new int[n];
+            entryHeads = new int[n];
+            growEntries(16);
+            if (queueType == Queue.LAZY) {
+                pq = null;
+                lazy = new LazyMinHeap(n);
+            } else {
+                pq = queueType.create(n);
+                lazy = null;
+            }
+            search = 0;
+        }
+
+        private void reset() {
+            if (pq != null) {
+                pq.clear();
+            } else {
+                lazy.clear();
+            }
+            numEntries = 0;
+            search += 1;
+            if (search == 0) {
+                Arrays.fill(marks, 0);
+                Arrays.fill(targetMarks, 0);
+                Arrays.fill(entryMarks, 0);
+                search = 1;
+            }
+        }
+
+        private void growEntries(int capacity) {
+            entryTargets = Arrays.copyOf(entryTargets == null ? new int[0] : entryTargets,
+                    capacity);
+            entryEdges = Arrays.copyOf(entryEdges == null ? new int[0] : entryEdges, capacity);
+            entryNexts = Arrays.copyOf(entryNexts == null ? new int[0] : entryNexts, capacity);
+            entryCosts = Arrays.copyOf(entryCosts == null ? new double[0] : entryCosts,
+                    capacity);
+        }
+
+        private double distTo(int v) {
+            return marks[v] == search ? distTo[v] : Double.POSITIVE_INFINITY;
+        }
+
+        private void setDistTo(int v, double dist, int from) {
+            marks[v] = search;
+            distTo[v] = dist;
+            edgeTo[v] = from;
+        }
+
+        /** Lower bound on the remaining weight from v to the nearer destination. */
+        private double heuristic(int v) {
+            if (destination < 0) {
+                return 0;
+            }
+            return heuristicScale * Math.min(g.chordDistance(v, destination),
+                                             g.chordDistance(v, otherDestination));
+        }
+
+        /**
+         * Starts the search at source, which is reached at dist. A search may have several
+         * sources; each is its own edgeTo, which is how paths are traced back to them.
+         */
+        private void start(int source, double dist) {
+            if (dist < distTo(source)) {
+                setDistTo(source, dist, source);
+                stepEdges[source] = -1;
+                if (pq != null) {
+                    pq.insertOrDecrease(source, dist + heuristic(source));
+                } else {
+                    lazy.push(source, dist + heuristic(source));
+                }
+            }
+        }
+
+        /** Records that v is reached at dist by the walk from `from` starting with edge step. */
+        private void relax(int v, double dist, int from, int step) {
+            if (dist < distTo(v)) {
+                setDistTo(v, dist, from);
+                stepEdges[v] = step;
+                if (pq != null) {
+                    pq.insertOrDecrease(v, dist + heuristic(v));
+                } else {
+                    lazy.push(v, dist + heuristic(v));
+                }
+            }
+        }
+
+        /**
+         * Removes and returns the vertex with the smallest priority, or -1 if there is none.
+         * A lazy entry is stale if its priority is above the vertex's current distance plus
+         * heuristic, and is dropped.
+         */
+        private int next() {
+            if (pq != null) {
+                return pq.isEmpty() ? -1 : pq.removeMin();
+            }
+            while (!lazy.isEmpty()) {
+                double priority = lazy.minPriority();
+                int v = lazy.removeMin();
+                if (priority <= distTo[v] + heuristic(v)) {
+                    return v;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Marks target t. If t is in the middle of a chain, adds the entries into it from
+         * the junctions at both ends, weighted by intoWeights, the weights of edges walked
+         * towards t.
+         */
+        private void addTarget(int t, float[] intoWeights) {
+            if (targetMarks[t] == search) {
+                return;
+            }
+            targetMarks[t] = search;
+            if (g.isJunction(t)) {
+                return;
+            }
+            for (int e = g.edgeStart(t), end = g.edgeStart(t + 1); e < end; e++) {
+                double cost = intoWeights[e];
+                int prev = t;
+                int v = g.edgeTarget(e);
+                while (!g.isJunction(v)) {
+                    int next = g.nextEdge(v, prev);
+                    cost += intoWeights[next];
+                    prev = v;
+                    v = g.edgeTarget(next);
+                }
+                if (numEntries == entryTargets.length) {
+                    growEntries(numEntries * 2);
+                }
+                entryTargets[numEntries] = t;
+                entryEdges[numEntries] = g.edgeBetween(v, prev);
+                entryCosts[numEntries] = cost;
+                entryNexts[numEntries] = entryMarks[v] == search ? entryHeads[v] : -1;
+                entryMarks[v] = search;
+                entryHeads[v] = numEntries;
+                numEntries += 1;
+            }
+        }
+
+        /**
+         * Relaxes everything reachable from settled vertex v without passing another
+         * junction: the junctions at the ends of its chains and the targets entered from it
+         * if v is a junction, or, if v is a source in the middle of a chain, the
+         * junctions and targets along the chain in both directions.
+         */
+        private void settle(int v) {
+            double distV = distTo[v];
+            if (g.isJunction(v)) {
+                for (int c = g.chainStart(v), end = g.chainStart(v + 1); c < end; c++) {
+                    relax(g.chainTarget(c), distV + chainWeights[c], v, g.chainFirstEdge(c));
+                }
+                if (entryMarks[v] == search) {
+                    for (int i = entryHeads[v]; i >= 0; i = entryNexts[i]) {
+                        relax(entryTargets[i], distV + entryCosts[i], v, entryEdges[i]);
+                    }
+                }
+            } else if (edgeTo[v] == v) {
+                for (int e = g.edgeStart(v), end = g.edgeStart(v + 1); e < end; e++) {
+                    double dist = distV + edgeWeights[e];
+                    int prev = v;
+                    int w = g.edgeTarget(e);
+                    while (!g.isJunction(w)) {
+                        if (targetMarks[w] == search) {
+                            relax(w, dist, v, e);
+                        }
+                        int next = g.nextEdge(w, prev);
+                        dist += edgeWeights[next];
+                        prev = w;
+                        w = g.edgeTarget(next);
+                    }
+                    relax(w, dist, v, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Search states not in use, all for one graph. Requests run on threads of their own,
+     * often new virtual threads, so states are pooled rather than kept per thread: a search
+     * borrows one and gives it back, and the next search reuses its arrays whichever thread
+     * it runs on. At most MAX_IDLE_STATES are kept; states given back beyond that, or for
+     * another graph, are left to the garbage collector.
+     */
+    private static final class StatePool {
+        private final GraphDB g;
+        private final ConcurrentLinkedQueue<SearchState> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger numIdle = new AtomicInteger();
+
+        private StatePool(GraphDB g) {
+            this.g = g;
+        }
+
+        /** Removes and returns an idle state, or null if there is none. */
+        private SearchState poll() {
+            SearchState s = idle.poll();
+            if (s != null) {
+                numIdle.decrementAndGet();
+            }
+            return s;
+        }
+
+        /** Adds s to the idle states unless there are enough already. */
+        private void offer(SearchState s) {
+            if (numIdle.incrementAndGet() > MAX_IDLE_STATES) {
+                numIdle.decrementAndGet();
+                return;
+            }
+            idle.offer(s);
+        }
+    }
+
+    /** Searches rarely outnumber the processors, since each one keeps a processor busy. */
+    private static final int MAX_IDLE_STATES = 2 * Runtime.getRuntime().availableProcessors();
+    /** Pool of the newest graph searched; a reload replaces it on the first search. */
+    private static volatile StatePool states;
+    /** Most routes alternatives returns, the shortest one included. */
+    private static final int MAX_ROUTES = 3;
+    /** Alternative routes weigh at most this many times the shortest route. */
+    private static final double MAX_STRETCH = 1.25;
+    /**
+     * Alternative routes share at most this fraction of the shortest route's weight with
+     * any other route returned.
+     */
+    private static final double MAX_SHARING = 0.75;
+    /**
+     * Alternative routes run along both search trees for at least this fraction of the
+     * shortest route's weight, so no short stretch of them can be cut shorter.
+     */
+    private static final double MIN_PLATEAU = 0.2;
+    /** At most this many alternative routes are expanded and checked. */
+    private static final int MAX_CANDIDATES = 32;
+    /** Number of routes remembered by shortestPath. */
+    private static final int ROUTE_CACHE_CAPACITY = 4096;
+    private static final Map<RoutingProfile, RouteCache> CACHES =
+            new EnumMap<>(RoutingProfile.class);
+
+    private static final Histogram SNAP_TIME = Metrics.PHASES.histogram("snap");
+    private static final Histogram SEARCH_TIME = Metrics.PHASES.histogram("search");
+    private static final Histogram PATH_TIME = Metrics.PHASES.histogram("path");
+    private static final Histogram SETTLED = Metrics.SETTLED.histogram();
+    private static final LongAdder UNREACHABLE = Metrics.UNREACHABLE.counter();
+
+    static {
+        for (RoutingProfile p : RoutingProfile.values()) {
+            RouteCache cache = new RouteCache(ROUTE_CACHE_CAPACITY);
+            CACHES.put(p, cache);
+            String name = p.name().toLowerCase();
+            Metrics.ROUTE_CACHE_HITS.register(name, cache::hits);
+            Metrics.ROUTE_CACHE_MISSES.register(name, cache::misses);
+        }
+    }
+
+    /** Selects the priority queue used by searches started after this call. */
+    static void setQueue(Queue q) {
+        queue = q;
+    }
+
+    /**
+     * Borrows a search state for g from the pool, ready for a new search weighted by
+     * edgeWeights and chainWeights towards the nearer of destination and otherDestination,
+     * or for a Dijkstra search if destination is -1. The state must be given back with
+     * release once the search's results have been read.
+     */
+    private static SearchState borrow(GraphDB g, float[] edgeWeights, float[] chainWeights,
+                                      double heuristicScale, int destination,
+                                      int otherDestination) {
+        StatePool pool = states;
+        if (pool == null || pool.g != g && pool.g.version() < g.version()) {
+            pool = new StatePool(g);
+            states = pool;
+        }
+        SearchState s = pool.g == g ? pool.poll() : null;
+        Queue q = queue;
+        if (s == null || s.queueType != q) {
+            s = new SearchState(g, q);
+        }
+        s.reset();
+        s.edgeWeights = edgeWeights;
+        s.chainWeights = chainWeights;
+        s.heuristicScale = heuristicScale;
+        s.destination = destination;
+        s.otherDestination = otherDestination;
+        return s;
+    }
+
+    /** Gives back a state borrowed with borrow, which must not be used any more. */
+    private static void release(SearchState s) {
+        StatePool pool = states;
+        if (pool != null && pool.g == s.g && s.queueType == queue) {
+            pool.offer(s);
+        }
+    }
+
+    /**
+     * Return a LinkedList of <code>Long</code>s representing the shortest path from st to dest, 
+     * where the longs are node IDs. The list is empty if dest cannot be reached from st.
+     * Routes are cached by their snapped endpoints, so repeating a route only costs snapping.
+     * Endpoints are told apart to a sixty-fourth of the road segment they snap to, so a
+     * route may be reused for a start or destination that far along the same segment.
+     */
     public static LinkedList<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                                 double destlon, double destlat) {
-        LinkedList<Long> spt = new LinkedList<>();
-        long source = g.closest(stlon, stlat);
-        long destination = g.closest(destlon, destlat);
-        //System.out.println(source);
-        // Set distance to infinity
-        for (Long id : g.vertices()) {
-            distTo.put(id, Double.POSITIVE_INFINITY);
-        }
-        double heuristic = g.distance(source, destination);
-        distTo.put(source, 0.0);
-
-        // relax vertices in order of distance from source
-        pq.insert(source, distTo.get(source) + heuristic);
-        pqValues.add(source);
-
-        while (!pq.isEmpty()) {
-            long v = pq.removeMin();
-            pqValues.remove(v);
-            if (v == destination) {
-                break;
-            }
-            for (long e : g.adjacent(v)) {
-                relax(v, e, destination, g);
-            }
-        }
-
-        long prev = edgeTo.get(destination);
-        spt.addFirst(destination);
-        while (prev != source) {
-            spt.addFirst(prev);
-            prev = edgeTo.get(prev);
-        }
-        spt.addFirst(source);
-        return spt;
-    }
-
-    private static void relax(long from, long to, long destination, GraphDB g) {
-        double heuristic = g.distance(to, destination);
-        double weight = g.distance(from, to);
-        if (distTo.get(to) > distTo.get(from) + weight) {
-            distTo.put(to, distTo.get(from) + weight);
-            edgeTo.put(to, from);
-            if (pqValues.contains(to)) {
-                pq.changePriority(to, distTo.get(to) + heuristic);
-            } else {
-                pq.insert(to, distTo.get(to) + heuristic);
-                pqValues.add(to);
+        return shortestPath(g, stlon, stlat, destlon, destlat, RoutingProfile.SHORTEST);
+    }
+
+    /**
+     * Same as shortestPath, but minimizing the weight of the given profile. The endpoints
+     * are snapped to the closest points on roads the profile can use.
+     */
+    public static LinkedList<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                                double destlon, double destlat,
+                                                RoutingProfile p) {
+        return ids(g, path(g, stlon, stlat, destlon, destlat, p));
+    }
+
+    /**
+     * Same as shortestPath, but returns the route as the dense indices in g of its
+     * vertices, an empty array if there is none. Callers must not modify the array, which
+     * may be shared through the route cache.
+     */
+    static int[] path(GraphDB g, double stlon, double stlat, double destlon, double destlat,
+                      RoutingProfile p) {
+        return cachedPath(g, snap(g, stlon, stlat, p), snap(g, destlon, destlat, p), p);
+    }
+
+    /**
+     * Returns the closest point to lon, lat on a road profile p can use, as for the ends
+     * of shortestPath, or null if there is none.
+     */
+    static GraphDB.Position snap(GraphDB g, double lon, double lat, RoutingProfile p) {
+        long start = System.nanoTime();
+        GraphDB.Position position = g.snap(lon, lat, p);
+        SNAP_TIME.observeNanos(System.nanoTime() - start);
+        return position;
+    }
+
+    /**
+     * Same as path, but between two positions returned by snap, either of which may be null
+     * if there was no road to snap to. Routes are looked up in and added to the route cache.
+     */
+    static int[] cachedPath(GraphDB g, GraphDB.Position source, GraphDB.Position destination,
+                            RoutingProfile p) {
+        if (source == null || destination == null) {
+            return new int[0];
+        }
+        /* Routes within one segment are cheap to find and turn on the exact fractions of
+         * their ends, which the cache keys round off, so they bypass the cache. */
+        if (!Double.isNaN(along(source, destination))) {
+            return path(g, source, destination, p);
+        }
+        RouteCache cache = CACHES.get(p);
+        int[] path = cache.get(g, key(source), key(destination));
+        if (path == null) {
+            path = path(g, source, destination, p);
+            cache.put(g, key(source), key(destination), path);
+        }
+        return path;
+    }
+
+    /** Returns the ids of the vertices with the given dense indices in g, in order. */
+    private static LinkedList<Long> ids(GraphDB g, int[] path) {
+        LinkedList<Long> route = new LinkedList<>();
+        for (int v : path) {
+            route.addLast(g.idOf(v));
+        }
+        return route;
+    }
+
+    /** Route cache key of a snapped position: its edge and which 64th of the edge it is on. */
+    private static int key(GraphDB.Position position) {
+        return position.edge * 64 + Math.min(63, (int) (position.fraction * 64));
+    }
+
+    /**
+     * Returns the cache in front of shortestPath for the given profile, for its statistics
+     * and invalidation.
+     */
+    static RouteCache cache(RoutingProfile p) {
+        return CACHES.get(p);
+    }
+
+    /** Empties the route caches of all profiles. */
+    static void invalidateCaches() {
+        for (RouteCache cache : CACHES.values()) {
+            cache.invalidate();
+        }
+    }
+
+    /**
+     * Same as shortestPath, but between two already snapped vertices given by their dense
+     * indices in g.
+     */
+    static LinkedList<Long> shortestPath(GraphDB g, int source, int destination,
+                                         RoutingProfile p) {
+        return ids(g, path(g, g.at(source), g.at(destination), p));
+    }
+
+    /**
+     * Returns the dense indices of the vertices of the route between two already snapped
+     * positions in g, or an empty array if there is none. The route runs from one end of
+     * the source's segment to one end of the destination's, and is the one of least weight
+     * counting the parts of the two segments beyond those ends. The search stops once no
+     * vertex left in the queue can lead to a lighter route. If both positions are on the
+     * same segment and going straight from one to the other along it is lightest, the
+     * route is the two ends of the segment in the direction of travel (see isDirect).
+     */
+    static int[] path(GraphDB g, GraphDB.Position source, GraphDB.Position destination,
+                      RoutingProfile p) {
+        if (source.from != destination.from && !g.connected(source.from, destination.from, p)) {
+            UNREACHABLE.increment();
+            return new int[0];
+        }
+        long start = System.nanoTime();
+        GraphDB.Weights w = g.weights(p);
+        SearchState s = borrow(g, w.weights, w.chains, w.heuristicScale, destination.from,
+                               destination.to);
+        try {
+            s.addTarget(destination.from, w.reverse);
+            s.addTarget(destination.to, w.reverse);
+            s.start(source.from, partialWeight(w.reverse, source.edge, source.fraction));
+            s.start(source.to, partialWeight(w.weights, source.edge, 1 - source.fraction));
+            double fromRest = partialWeight(w.weights, destination.edge, destination.fraction);
+            double toRest = partialWeight(w.reverse, destination.edge, 1 - destination.fraction);
+            double best = directWeight(w, source, destination);
+            int end = -1;
+            int settled = 0;
+            for (int v = s.next(); v >= 0; v = s.next()) {
+                double bound = s.distTo[v] + s.heuristic(v);
+                if (bound >= best) {
+                    break;
+                }
+                if (s.targetMarks[v] == s.search) {
+                    double rest = v == destination.from ? fromRest : Double.POSITIVE_INFINITY;
+                    if (v == destination.to) {
+                        rest = Math.min(rest, toRest);
+                    }
+                    if (s.distTo[v] + rest < best) {
+                        best = s.distTo[v] + rest;
+                        end = v;
+                    }
+                    if (best <= bound) {
+                        break;
+                    }
+                }
+                s.settle(v);
+                settled += 1;
+            }
+            long searched = System.nanoTime();
+            SEARCH_TIME.observeNanos(searched - start);
+            SETTLED.observe(settled);
+
+            if (end < 0) {
+                return best < Double.POSITIVE_INFINITY ? directPath(source, destination)
+                                                       : new int[0];
+            }
+            int[] path = trace(g, s, end);
+            PATH_TIME.observeNanos(System.nanoTime() - searched);
+            return path;
+        } finally {
+            release(s);
+        }
+    }
+
+    /**
+     * Returns how far along the edge of source destination is, as a fraction, if the two
+     * are on the same segment: on the same edge, or on the edge and its twin. Returns NaN
+     * otherwise, or if either is a vertex rather than a point on an edge.
+     */
+    static double along(GraphDB.Position source, GraphDB.Position destination) {
+        if (source.edge < 0 || destination.edge < 0) {
+            return Double.NaN;
+        }
+        if (source.edge == destination.edge) {
+            return destination.fraction;
+        }
+        if (source.from == destination.to && source.to == destination.from) {
+            return 1 - destination.fraction;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Weight of going straight from source to destination along their common segment,
+     * or infinity if they are not on the same segment or the weights forbid that direction.
+     */
+    private static double directWeight(GraphDB.Weights w, GraphDB.Position source,
+                                       GraphDB.Position destination) {
+        double along = along(source, destination);
+        if (Double.isNaN(along)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return along >= source.fraction
+                ? partialWeight(w.weights, source.edge, along - source.fraction)
+                : partialWeight(w.reverse, source.edge, source.fraction - along);
+    }
+
+    /** The ends of the common segment of source and destination, in the direction of travel. */
+    private static int[] directPath(GraphDB.Position source, GraphDB.Position destination) {
+        return along(source, destination) >= source.fraction
+                ? new int[] {source.from, source.to} : new int[] {source.to, source.from};
+    }
+
+    /**
+     * Whether path, a route from source to destination, goes straight from one to the
+     * other along their common segment rather than through its ends.
+     */
+    static boolean isDirect(GraphDB.Position source, GraphDB.Position destination,
+                            int[] path) {
+        return path.length == 2 && !Double.isNaN(along(source, destination))
+                && Arrays.equals(path, directPath(source, destination));
+    }
+
+    /**
+     * Weight of the given fraction of edge e, or 0 if the fraction is 0 or there is no
+     * edge. Any part of an edge the weights forbid weighs infinity.
+     */
+    private static double partialWeight(float[] weights, int e, double fraction) {
+        return e < 0 || fraction == 0 ? 0 : fraction * weights[e];
+    }
+
+    /**
+     * Returns every vertex on the path the search s found to end, from the source it
+     * started at. Each step from edgeTo[v] to v is expanded to the walk that leaves
+     * edgeTo[v] by stepEdges[v] and follows the chain to v. The path is collected from end
+     * backwards, each walk reversed as it is appended, and reversed as a whole at the end.
+     */
+    private static int[] trace(GraphDB g, SearchState s, int end) {
+        int[] path = new int[64];
+        int size = 0;
+        int v = end;
+        while (s.edgeTo[v] != v) {
+            int from = s.edgeTo[v];
+            int first = size;
+            int prev = from;
+            int w = g.edgeTarget(s.stepEdges[v]);
+            while (true) {
+                if (size == path.length) {
+                    path = Arrays.copyOf(path, 2 * size);
+                }
+                path[size++] = w;
+                if (w == v) {
+                    break;
+                }
+                int next = g.edgeTarget(g.nextEdge(w, prev));
+                prev = w;
+                w = next;
+            }
+            reverse(path, first, size);
+            v = from;
+        }
+        if (size == path.length) {
+            path = Arrays.copyOf(path, size + 1);
+        }
+        path[size++] = v;
+        reverse(path, 0, size);
+        return Arrays.copyOf(path, size);
+    }
+
+    /** Reverses a[from] to a[to - 1] in place. */
+    private static void reverse(int[] a, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            int swap = a[i];
+            a[i] = a[j];
+            a[j] = swap;
+        }
+    }
+
+    /**
+     * Returns up to MAX_ROUTES routes from st to dest under profile p, as the dense indices
+     * in g of their vertices: the shortest route first, then alternatives to it in order of
+     * preference. There are none if dest cannot be reached from st. The endpoints are
+     * snapped as for shortestPath.
+     */
+    static int[][] alternatives(GraphDB g, double stlon, double stlat, double destlon,
+                                double destlat, RoutingProfile p) {
+        GraphDB.Position source = snap(g, stlon, stlat, p);
+        GraphDB.Position destination = snap(g, destlon, destlat, p);
+        if (source == null || destination == null) {
+            return new int[0][];
+        }
+        return alternatives(g, source, destination, p);
+    }
+
+    /**
+     * Same as alternatives, but between two already snapped positions. This is the via-node
+     * method on the plateaus of one forward and one backward search tree.
+     *
+     * The forward A* search goes on past the shortest route, of weight d, until it has
+     * settled every vertex that might lie on a route of weight up to MAX_STRETCH * d. The
+     * backward search from the destination only settles those vertices whose forward and
+     * backward distance add up to no more than that, so each vertex settled by both is the
+     * via vertex of a route short enough: the forward tree's path to it followed by the
+     * backward tree's path from it. Vertices where the two trees run along the same road
+     * form plateaus, and all the via vertices of one plateau give the same route. A route
+     * is only as good as its plateau is long, since a route is locally optimal for the
+     * length of its plateau: plateaus shorter than MIN_PLATEAU * d are dropped, and the
+     * others are ranked by twice their route's weight less their length. Routes are then
+     * expanded in that order and taken unless they loop or share more than
+     * MAX_SHARING * d with a route already taken.
+     *
+     * Both searches stay within the ellipse of routes at most MAX_STRETCH times the
+     * shortest, so this costs a small multiple of a single route search.
+     */
+    static int[][] alternatives(GraphDB g, GraphDB.Position source,
+                                GraphDB.Position destination, RoutingProfile p) {
+        if (source.from != destination.from && !g.connected(source.from, destination.from, p)) {
+            UNREACHABLE.increment();
+            return new int[0][];
+        }
+        GraphDB.Weights w = g.weights(p);
+        SearchState f = borrow(g, w.weights, w.chains, w.heuristicScale, destination.from,
+                               destination.to);
+        SearchState b = null;
+        try {
+            f.addTarget(destination.from, w.reverse);
+            f.addTarget(destination.to, w.reverse);
+            f.start(source.from, partialWeight(w.reverse, source.edge, source.fraction));
+            f.start(source.to, partialWeight(w.weights, source.edge, 1 - source.fraction));
+            double fromRest = partialWeight(w.weights, destination.edge, destination.fraction);
+            double toRest = partialWeight(w.reverse, destination.edge, 1 - destination.fraction);
+            double best = directWeight(w, source, destination);
+            int end = -1;
+            /* Every vertex whose distance plus heuristic is within the final radius is settled,
+             * and with it every vertex on a route that is; the vertex the search stops at is
+             * not, but its bound already rules it out. */
+            for (int v = f.next(); v >= 0; v = f.next()) {
+                if (f.distTo[v] + f.heuristic(v) > MAX_STRETCH * best) {
+                    break;
+                }
+                if (f.targetMarks[v] == f.search) {
+                    double rest = v == destination.from ? fromRest : Double.POSITIVE_INFINITY;
+                    if (v == destination.to) {
+                        rest = Math.min(rest, toRest);
+                    }
+                    if (f.distTo[v] + rest < best) {
+                        best = f.distTo[v] + rest;
+                        end = v;
+                    }
+                }
+                f.settle(v);
+            }
+            if (end < 0 && best == Double.POSITIVE_INFINITY) {
+                return new int[0][];
+            }
+            double radius = MAX_STRETCH * best;
+
+            /* The backward search labels each vertex it settles with its plateau: the one of
+             * its backward parent if the forward tree reaches that parent through it, a new one
+             * otherwise. Plateaus are numbered in the order they are found, and each one runs
+             * from its bottom, nearest the destination, up to its top. */
+            b = borrow(g, w.reverse, w.chainReverse, 0, -1, -1);
+            if (b.plateaus == null) {
+                b.plateaus = new int[g.size()];
+            }
+            int[] tops = new int[16];
+            int[] bottoms = new int[16];
+            int numPlateaus = 0;
+            b.start(destination.from, fromRest);
+            b.start(destination.to, toRest);
+            for (int v = b.next(); v >= 0; v = b.next()) {
+                if (b.distTo[v] > radius) {
+                    break;
+                }
+                double via = f.distTo(v) + b.distTo[v];
+                if (via > radius) {
+                    continue;
+                }
+                /* Both trees join v and its parent by the same road if the two routes through
+                 * them weigh the same, up to the rounding of chain weights to floats. */
+                int parent = b.edgeTo[v];
+                if (parent != v && f.edgeTo[parent] == v
+                        && Math.abs(f.distTo[parent] + b.distTo[parent] - via) <= 1e-6 * radius) {
+                    int plateau = b.plateaus[parent];
+                    b.plateaus[v] = plateau;
+                    tops[plateau] = v;
+                } else {
+                    if (numPlateaus == tops.length) {
+                        tops = Arrays.copyOf(tops, 2 * numPlateaus);
+                        bottoms = Arrays.copyOf(bottoms, 2 * numPlateaus);
+                    }
+                    b.plateaus[v] = numPlateaus;
+                    tops[numPlateaus] = v;
+                    bottoms[numPlateaus] = v;
+                    numPlateaus += 1;
+                }
+                b.settle(v);
+            }
+
+            /* Each key holds a plateau's rank as a float above the plateau itself; the bits of
+             * non-negative floats sort in the same order as their values. */
+            long[] keys = new long[numPlateaus];
+            int numCandidates = 0;
+            for (int k = 0; k < numPlateaus; k++) {
+                int top = tops[k];
+                double length = b.distTo[top] - b.distTo[bottoms[k]];
+                if (length >= MIN_PLATEAU * best) {
+                    float rank = (float) (2 * (f.distTo[top] + b.distTo[top]) - length);
+                    keys[numCandidates++] = (long) Float.floatToIntBits(rank) << 32 | k;
+                }
+            }
+            Arrays.sort(keys, 0, numCandidates);
+
+            int[][] routes = new int[MAX_ROUTES][];
+            long[][] routeEdges = new long[MAX_ROUTES][];
+            routes[0] = end < 0 ? directPath(source, destination) : trace(g, f, end);
+            routeEdges[0] = edgeKeys(routes[0]);
+            int numRoutes = 1;
+            for (int i = 0; i < numCandidates && i < MAX_CANDIDATES && numRoutes < MAX_ROUTES;
+                 i++) {
+                int via = tops[(int) keys[i]];
+                int[] route = viaRoute(g, f, b, via);
+                if (!isSimple(route)) {
+                    continue;
+                }
+                boolean distinct = true;
+                for (int r = 0; r < numRoutes && distinct; r++) {
+                    /* Routes leaving or entering by the same end of a segment also share the
+                     * part of the segment beyond it, which the search trees weigh their ends
+                     * at. */
+                    double shared = sharedWeight(g, w.weights, route, routeEdges[r]);
+                    if (route[0] == routes[r][0]) {
+                        shared += f.distTo[route[0]];
+                    }
+                    if (route[route.length - 1] == routes[r][routes[r].length - 1]) {
+                        shared += b.distTo[route[route.length - 1]];
+                    }
+                    distinct = shared <= MAX_SHARING * best;
+                }
+                if (distinct) {
+                    routes[numRoutes] = route;
+                    routeEdges[numRoutes] = edgeKeys(route);
+                    numRoutes += 1;
+                }
+            }
+            return Arrays.copyOf(routes, numRoutes);
+        } finally {
+            release(f);
+            if (b != null) {
+                release(b);
+            }
+        }
+    }
+
+    /**
+     * Returns the route through via made of the path to it in the forward search tree f
+     * and the path from it in the backward search tree b.
+     */
+    private static int[] viaRoute(GraphDB g, SearchState f, SearchState b, int via) {
+        int[] prefix = trace(g, f, via);
+        int[] suffix = trace(g, b, via);
+        int[] route = Arrays.copyOf(prefix, prefix.length + suffix.length - 1);
+        for (int i = 0; i < suffix.length - 1; i++) {
+            route[prefix.length + i] = suffix[suffix.length - 2 - i];
+        }
+        return route;
+    }
+
+    /** Whether no vertex appears twice on route. */
+    private static boolean isSimple(int[] route) {
+        int[] sorted = route.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the steps of route, each as its first vertex above its second, sorted. */
+    private static long[] edgeKeys(int[] route) {
+        long[] keys = new long[Math.max(0, route.length - 1)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) route[i] << 32 | route[i + 1];
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /** Weight of the steps of route that are among the sorted step keys of another route. */
+    private static double sharedWeight(GraphDB g, float[] weights, int[] route, long[] other) {
+        double shared = 0;
+        for (int i = 0; i + 1 < route.length; i++) {
+            if (Arrays.binarySearch(other, (long) route[i] << 32 | route[i + 1]) >= 0) {
+                shared += weights[g.edgeBetween(route[i], route[i + 1])];
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Returns the least weight under profile p from source to each of targets, or infinity
+     * for targets that cannot be reached. All vertices are dense indices in g. This is a
+     * single Dijkstra search from source that stops once every target has been settled.
+     */
+    static double[] distancesFrom(GraphDB g, int source, int[] targets, RoutingProfile p) {
+        GraphDB.Weights w = g.weights(p);
+        return distances(g, source, targets, w.weights, w.chains, w.reverse, w.components);
+    }
+
+    /**
+     * Returns the least weight under profile p from each of sources to target, or infinity
+     * for sources that cannot reach it. This is the mirror image of distancesFrom: a single
+     * backward search from target over the reverse edge weights.
+     */
+    static double[] distancesTo(GraphDB g, int[] sources, int target, RoutingProfile p) {
+        GraphDB.Weights w = g.weights(p);
+        return distances(g, target, sources, w.reverse, w.chainReverse, w.weights,
+                w.components);
+    }
+
+    /**
+     * Dijkstra search from source over edgeWeights and chainWeights that stops once every
+     * one of targets has been settled. intoWeights weigh the edges walked from a target to
+     * the ends of its chain. Targets outside the component of source are skipped. Returns
+     * the distance to each of targets.
+     */
+    private static double[] distances(GraphDB g, int source, int[] targets,
+                                      float[] edgeWeights, float[] chainWeights,
+                                      float[] intoWeights, int[] components) {
+        SearchState s = borrow(g, edgeWeights, chainWeights, 0, -1, -1);
+        try {
+            int remaining = 0;
+            for (int t : targets) {
+                boolean connected = components[t] >= 0 && components[t] == components[source];
+                if ((connected || t == source) && s.targetMarks[t] != s.search) {
+                    s.addTarget(t, intoWeights);
+                    remaining += 1;
+                }
+            }
+            s.start(source, 0);
+
+            while (remaining > 0) {
+                int v = s.next();
+                if (v < 0) {
+                    break;
+                }
+                if (s.targetMarks[v] == s.search) {
+                    s.targetMarks[v] = 0;
+                    remaining -= 1;
+                }
+                s.settle(v);
+            }
+
+            double[] distances = new double[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                distances[i] = s.distTo(targets[i]);
+            }
+            return distances;
+        } finally {
+            release(s);
+        }
+    }
+
+    /**
+     * Returns the matrix of least weights from every source to every target, where row i
+     * holds distancesFrom(g, sources[i], targets, p). It takes one search per source, or
+     * one backward search per target if there are fewer targets. Searches run in parallel,
+     * each with a SearchState of its own.
+     */
+    static double[][] distanceMatrix(GraphDB g, int[] sources, int[] targets,
+                                     RoutingProfile p) {
+        double[][] matrix = new double[sources.length][];
+        if (sources.length <= targets.length) {
+            IntStream.range(0, sources.length).parallel()
+                    .forEach(i -> matrix[i] = distancesFrom(g, sources[i], targets, p));
+            return matrix;
+        }
+        double[][] columns = new double[targets.length][];
+        IntStream.range(0, targets.length).parallel()
+                .forEach(j -> columns[j] = distancesTo(g, sources, targets[j], p));
+        for (int i = 0; i < sources.length; i++) {
+            matrix[i] = new double[targets.length];
+            for (int j = 0; j < targets.length; j++) {
+                matrix[i][j] = columns[j][i];
             }
         }
+        return matrix;
     }
 
+    /**
+     * Returns every vertex whose least weight under profile p from source is at most
+     * maxDistance, in order of increasing weight, starting with source itself. All vertices
+     * are dense indices in g. This is a Dijkstra search that stops at the first vertex
+     * beyond maxDistance. Unlike the other searches it settles shape points too, as every
+     * one of them within reach is part of the answer.
+     */
+    static int[] reachableWithin(GraphDB g, int source, double maxDistance, RoutingProfile p) {
+        float[] weights = g.weights(p).weights;
+        SearchState s = borrow(g, weights, null, 0, -1, -1);
+        try {
+            int count = 0;
+            s.start(source, 0);
+
+            for (int v = s.next(); v >= 0; v = s.next()) {
+                double distV = s.distTo[v];
+                if (distV > maxDistance) {
+                    break;
+                }
+                s.settled[count] = v;
+                count += 1;
+                for (int e = g.edgeStart(v), end = g.edgeStart(v + 1); e < end; e++) {
+                    double newDist = distV + weights[e];
+                    if (newDist <= maxDistance) {
+                        s.relax(g.edgeTarget(e), newDist, v, e);
+                    }
+                }
+            }
+            return Arrays.copyOf(s.settled, count);
+        } finally {
+            release(s);
+        }
+    }
 }
@@ -0,0 +1,47 @@
+import java.util.Random;
+
+/**
+ * Times Router on a fixed set of random routes over berkeley.osm with each of its
+ * priority queues, so the default can be picked from measurements on our own data.
+ * Snapping is done once up front and left out of the timings.
+ * Usage: java RouterBenchmark [routes] [rounds]
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "berkeley.osm";
+    private static final long SEED = 61L;
+
+    public static void main(String[] args) {
+        int numRoutes = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        GraphDB g = new GraphDB(OSM_DB_PATH);
+
+        Random random = new Random(SEED);
+        int[] sources = new int[numRoutes];
+        int[] destinations = new int[numRoutes];
+        for (int i = 0; i < numRoutes; i++) {
+            sources[i] = random.nextInt(g.size());
+            destinations[i] = random.nextInt(g.size());
+        }
+
+        System.out.println(g.size() + " vertices, " + g.junctionCount() + " junctions, "
+                + numRoutes + " routes per round.");
+        for (Router.Queue q : Router.Queue.values()) {
+            Router.setQueue(q);
+            /* The first round warms up the JIT and is not reported. */
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r <= rounds; r++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < numRoutes; i++) {
+                    Router.shortestPath(g, sources[i], destinations[i],
+                            RoutingProfile.SHORTEST);
+                }
+                long elapsed = System.nanoTime() - start;
+                if (r > 0) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+            System.out.printf("%-12s %8.1f us/route (best of %d rounds)%n", q,
+                    best / 1000.0 / numRoutes, rounds);
+        }
+    }
+}
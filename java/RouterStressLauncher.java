@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the same set of random routes single-threaded and then concurrently from many
+ * threads against one shared GraphDB, and reports any route that differs between the two
+ * runs or throws when run concurrently. Use it to check that changes to Router keep it
+ * safe to call from request threads.
+ */
+public class RouterStressLauncher {
+    private static final String OSM_DB_PATH = "berkeley.osm";
+    private static final int NUM_ROUTES = 200;
+    private static final int NUM_THREADS = 8;
+    private static final long SEED = 61L;
+
+    public static void main(String[] args) throws Exception {
+        GraphDB g = new GraphDB(OSM_DB_PATH);
+        List<Long> vertices = new ArrayList<>();
+        for (long v : g.vertices()) {
+            vertices.add(v);
+        }
+
+        Random random = new Random(SEED);
+        double[][] queries = new double[NUM_ROUTES][];
+        for (int i = 0; i < NUM_ROUTES; i++) {
+            long st = vertices.get(random.nextInt(vertices.size()));
+            long dest = vertices.get(random.nextInt(vertices.size()));
+            queries[i] = new double[] {g.lon(st), g.lat(st), g.lon(dest), g.lat(dest)};
+        }
+
+        List<LinkedList<Long>> expected = new ArrayList<>();
+        long start = System.nanoTime();
+        for (double[] q : queries) {
+            expected.add(route(g, q));
+        }
+        long sequentialNanos = System.nanoTime() - start;
+
+        /* Start the concurrent run cold, so that it searches instead of reading the cache. */
+        Router.invalidateCaches();
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<LinkedList<Long>>> actual = new ArrayList<>();
+        start = System.nanoTime();
+        for (double[] q : queries) {
+            actual.add(pool.submit(() -> route(g, q)));
+        }
+        int mismatches = 0;
+        for (int i = 0; i < NUM_ROUTES; i++) {
+            try {
+                if (!Objects.equals(expected.get(i), actual.get(i).get())) {
+                    mismatches += 1;
+                    System.out.println("Route " + i + " differs when run concurrently.");
+                }
+            } catch (ExecutionException e) {
+                mismatches += 1;
+                System.out.println("Route " + i + " fails when run concurrently:");
+                e.getCause().printStackTrace(System.out);
+            }
+        }
+        long concurrentNanos = System.nanoTime() - start;
+        pool.shutdown();
+
+        System.out.println(NUM_ROUTES + " routes: " + sequentialNanos / 1000000
+                + " ms on 1 thread, " + concurrentNanos / 1000000 + " ms on " + NUM_THREADS
+                + " threads, " + mismatches + " mismatches.");
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the route for query q. An exception from Router is not caught: on the single
+     * thread it stops the run, and concurrently it counts as a mismatch.
+     */
+    private static LinkedList<Long> route(GraphDB g, double[] q) {
+        return Router.shortestPath(g, q[0], q[1], q[2], q[3]);
+    }
+}
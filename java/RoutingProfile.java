@@ -0,0 +1,51 @@
+/**
+ * The ways a route can be computed over the same graph. Each profile turns an edge's
+ * attribute flags, length and travel time into a weight, or infinity if the profile may not
+ * use the edge. GraphDB evaluates every profile once per edge when it is built and keeps one
+ * float[] of weights per profile, so searches only ever read an array.
+ */
+enum RoutingProfile {
+    /**
+     * Shortest route over the motor vehicle roads, ignoring one-way and access restrictions.
+     * This is the original BearMaps behavior and the default.
+     */
+    SHORTEST((highway, flags, length, time) ->
+            highway.isMotorRoad() ? length : Float.POSITIVE_INFINITY),
+    /** Fastest route by car, obeying one-way streets and motor vehicle access tags. */
+    DRIVING((highway, flags, length, time) ->
+            highway.isMotorRoad() && (flags & (GraphDB.AGAINST_ONEWAY | GraphDB.NO_MOTOR)) == 0
+                    ? time : Float.POSITIVE_INFINITY),
+    /** Shortest route on foot, over any walkable way in either direction. */
+    WALKING((highway, flags, length, time) ->
+            highway.isWalkable() && (flags & GraphDB.NO_FOOT) == 0
+                    ? length : Float.POSITIVE_INFINITY);
+
+    /** Cost function of a profile. */
+    interface EdgeCost {
+        /**
+         * Returns the weight of an edge.
+         * @param highway The highway type of the edge's way.
+         * @param flags The edge's flags, see GraphDB.AGAINST_ONEWAY and friends.
+         * @param length Length of the edge in meters.
+         * @param time Seconds needed to travel the edge at its road's speed.
+         * @return The non-negative weight, or infinity if the profile may not use the edge.
+         */
+        float weight(Highway highway, int flags, float length, float time);
+    }
+
+    private final EdgeCost cost;
+
+    RoutingProfile(EdgeCost cost) {
+        this.cost = cost;
+    }
+
+    /** Weight of an edge with the given flags, length and travel time under this profile. */
+    float weight(int flags, float length, float time) {
+        return cost.weight(Highway.of(flags & GraphDB.HIGHWAY_MASK), flags, length, time);
+    }
+
+    /** Returns the profile with the given name in any case, or SHORTEST if name is null. */
+    static RoutingProfile parse(String name) {
+        return name == null ? SHORTEST : valueOf(name.toUpperCase());
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialized autocomplete responses for the /search endpoint. Every prefix of up to
+ * HOT_PREFIX_LENGTH characters is rendered to JSON once when the cache is built, so the
+ * most common keystrokes never touch the trie; longer prefixes go through a small LRU.
+ * A SearchCache is tied to one name index, so build a new one whenever the graph changes.
+ */
+class SearchCache {
+    /** Prefixes up to this length are precomputed. */
+    static final int HOT_PREFIX_LENGTH = 3;
+    /** Maximum number of longer prefixes remembered by the LRU. */
+    private static final int LRU_CAPACITY = 1024;
+
+    private final TrieST<String> names;
+    private final HashMap<String, byte[]> hot;
+    private final LinkedHashMap<String, byte[]> recent;
+
+    SearchCache(TrieST<String> names) {
+        this.names = names;
+        this.hot = new HashMap<>();
+        for (String prefix : names.prefixes(HOT_PREFIX_LENGTH)) {
+            hot.put(prefix, serialize(names.keysWithPrefix(prefix)));
+        }
+        this.recent = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > LRU_CAPACITY;
+            }
+        };
+    }
+
+    /**
+     * Returns the JSON array of location names matching prefix, ready to be written out.
+     * @param prefix Prefix string as sent by the client.
+     * @return UTF-8 encoded JSON bytes. Callers must not modify the returned array.
+     */
+    byte[] keysWithPrefix(String prefix) {
+        byte[] json = hot.get(prefix);
+        if (json != null) {
+            return json;
+        }
+        synchronized (recent) {
+            json = recent.get(prefix);
+        }
+        if (json == null) {
+            json = serialize(names.keysWithPrefix(prefix));
+            synchronized (recent) {
+                recent.put(prefix, json);
+            }
+        }
+        return json;
+    }
+
+    private static byte[] serialize(List<String> matches) {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try {
+            JsonResponses.writeNames(json, matches);
+        } catch (IOException e) {
+            /* A ByteArrayOutputStream never throws. */
+            throw new UncheckedIOException(e);
+        }
+        return json.toByteArray();
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Packed R-tree over line segments between points given by longitude and latitude, for
+ * finding the segment nearest to a point. GraphDB keeps one over its roads to snap points
+ * onto them.
+ *
+ * The tree is built once and never changes. Segments are sorted along a Hilbert curve
+ * through their centers and packed NODE_SIZE to a leaf, and the leaves NODE_SIZE to a node
+ * and so on up to the root, so the whole tree is a few flat arrays of bounding boxes with
+ * no pointers: the children of node j of a level are nodes NODE_SIZE * j onwards of the
+ * level below. Distances are measured on a plane where a degree of longitude is scaled by
+ * the cosine of the mean latitude, which is accurate to well under a meter over a city.
+ */
+class SegmentIndex {
+    private static final int NODE_SIZE = 16;
+    /** Bits per coordinate of the Hilbert curve cells segments are sorted by. */
+    private static final int HILBERT_BITS = 15;
+
+    private final double[] lons;
+    private final double[] lats;
+    private final int[] from;
+    private final int[] to;
+    /** Length of a degree of longitude in degrees of latitude. */
+    private final double scale;
+    /** order[i] is the segment at position i of the packed order. */
+    private final int[] order;
+    /* Bounding boxes of the nodes, level by level from the leaves up to the root: the nodes
+     * of level k are levelStart[k] to levelStart[k + 1] - 1, and the last node is the root.
+     * Leaf j holds the segments at positions NODE_SIZE * j onwards of the packed order. */
+    private final int[] levelStart;
+    private final double[] minXs;
+    private final double[] minYs;
+    private final double[] maxXs;
+    private final double[] maxYs;
+
+    /**
+     * Indexes the segments from point from[i] to point to[i], for i in [0, from.length), of
+     * the points with the given longitudes and latitudes. The arrays are kept, not copied.
+     */
+    SegmentIndex(double[] lons, double[] lats, int[] from, int[] to) {
+        this.lons = lons;
+        this.lats = lats;
+        this.from = from;
+        this.to = to;
+        int n = from.length;
+        double meanLat = 0;
+        for (double lat : lats) {
+            meanLat += lat / lats.length;
+        }
+        scale = Math.cos(Math.toRadians(meanLat));
+        order = hilbertOrder();
+
+        int numLevels = 1;
+        int numNodes = 0;
+        for (int count = ceilDiv(n, NODE_SIZE); ; count = ceilDiv(count, NODE_SIZE)) {
+            numNodes += count;
+            if (count <= 1) {
+                break;
+            }
+            numLevels += 1;
+        }
+        levelStart = new int[numLevels + 1];
+        minXs = new double[numNodes];
+        minYs = new double[numNodes];
+        maxXs = new double[numNodes];
+        maxYs = new double[numNodes];
+        Arrays.fill(minXs, Double.POSITIVE_INFINITY);
+        Arrays.fill(minYs, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxXs, Double.NEGATIVE_INFINITY);
+        Arrays.fill(maxYs, Double.NEGATIVE_INFINITY);
+        levelStart[1] = ceilDiv(n, NODE_SIZE);
+        for (int i = 0; i < n; i++) {
+            int s = order[i];
+            int leaf = i / NODE_SIZE;
+            include(leaf, x(from[s]), y(from[s]), x(from[s]), y(from[s]));
+            include(leaf, x(to[s]), y(to[s]), x(to[s]), y(to[s]));
+        }
+        for (int k = 1; k < numLevels; k++) {
+            int below = levelStart[k - 1];
+            levelStart[k + 1] = levelStart[k] + ceilDiv(levelStart[k] - below, NODE_SIZE);
+            for (int c = below; c < levelStart[k]; c++) {
+                include(levelStart[k] + (c - below) / NODE_SIZE,
+                        minXs[c], minYs[c], maxXs[c], maxYs[c]);
+            }
+        }
+    }
+
+    /** Number of segments indexed. */
+    int size() {
+        return order.length;
+    }
+
+    /**
+     * Returns the segment nearest to the given longitude and latitude among those accept
+     * is true for, or -1 if there is none. Nodes are visited best first, closest bounding
+     * box first, so the search stops as soon as no unvisited box is closer than the nearest
+     * segment found, having looked at a few leaves near the point.
+     */
+    int nearest(double lon, double lat, IntPredicate accept) {
+        if (order.length == 0) {
+            return -1;
+        }
+        double px = lon * scale;
+        double py = lat;
+        LazyMinHeap queue = new LazyMinHeap(4 * NODE_SIZE);
+        /* Nodes are queued as their index, segments as -1 - their position. */
+        int root = levelStart[levelStart.length - 1] - 1;
+        queue.push(root, 0);
+        while (!queue.isEmpty()) {
+            int item = queue.removeMin();
+            if (item < 0) {
+                return order[-1 - item];
+            }
+            int level = 0;
+            while (item >= levelStart[level + 1]) {
+                level += 1;
+            }
+            int first = (item - levelStart[level]) * NODE_SIZE;
+            if (level == 0) {
+                for (int i = first, end = Math.min(first + NODE_SIZE, order.length); i < end;
+                     i++) {
+                    int s = order[i];
+                    if (accept.test(s)) {
+                        queue.push(-1 - i, distanceSquared(s, px, py));
+                    }
+                }
+                continue;
+            }
+            for (int c = levelStart[level - 1] + first,
+                     end = Math.min(c + NODE_SIZE, levelStart[level]); c < end; c++) {
+                double dx = Math.max(0, Math.max(minXs[c] - px, px - maxXs[c]));
+                double dy = Math.max(0, Math.max(minYs[c] - py, py - maxYs[c]));
+                queue.push(c, dx * dx + dy * dy);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns how far along segment s, from 0 at its from point to 1 at its to point, the
+     * point closest to the given longitude and latitude lies.
+     */
+    double fraction(int s, double lon, double lat) {
+        return project(s, lon * scale, lat);
+    }
+
+    /** Returns the fraction of segment s at which it comes closest to plane point (px, py). */
+    private double project(int s, double px, double py) {
+        double ax = x(from[s]);
+        double ay = y(from[s]);
+        double dx = x(to[s]) - ax;
+        double dy = y(to[s]) - ay;
+        double length2 = dx * dx + dy * dy;
+        if (length2 == 0) {
+            return 0;
+        }
+        double t = ((px - ax) * dx + (py - ay) * dy) / length2;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    private double distanceSquared(int s, double px, double py) {
+        double t = project(s, px, py);
+        double dx = x(from[s]) + t * (x(to[s]) - x(from[s])) - px;
+        double dy = y(from[s]) + t * (y(to[s]) - y(from[s])) - py;
+        return dx * dx + dy * dy;
+    }
+
+    private double x(int point) {
+        return lons[point] * scale;
+    }
+
+    private double y(int point) {
+        return lats[point];
+    }
+
+    /** Grows the bounding box of node j to cover the given box. */
+    private void include(int j, double minX, double minY, double maxX, double maxY) {
+        minXs[j] = Math.min(minXs[j], minX);
+        minYs[j] = Math.min(minYs[j], minY);
+        maxXs[j] = Math.max(maxXs[j], maxX);
+        maxYs[j] = Math.max(maxYs[j], maxY);
+    }
+
+    /** Returns the segments sorted by the Hilbert curve cell their center falls in. */
+    private int[] hilbertOrder() {
+        int n = from.length;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int s = 0; s < n; s++) {
+            double cx = (x(from[s]) + x(to[s])) / 2;
+            double cy = (y(from[s]) + y(to[s])) / 2;
+            minX = Math.min(minX, cx);
+            minY = Math.min(minY, cy);
+            maxX = Math.max(maxX, cx);
+            maxY = Math.max(maxY, cy);
+        }
+        int cells = (1 << HILBERT_BITS) - 1;
+        double cellsX = maxX > minX ? cells / (maxX - minX) : 0;
+        double cellsY = maxY > minY ? cells / (maxY - minY) : 0;
+        /* Each key holds a segment's curve position above the segment itself. */
+        long[] keys = new long[n];
+        for (int s = 0; s < n; s++) {
+            int hx = (int) (((x(from[s]) + x(to[s])) / 2 - minX) * cellsX);
+            int hy = (int) (((y(from[s]) + y(to[s])) / 2 - minY) * cellsY);
+            keys[s] = hilbert(hx, hy) << 32 | s;
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    /** Position of cell (x, y) along the Hilbert curve through a 2^HILBERT_BITS square. */
+    private static long hilbert(int x, int y) {
+        int last = (1 << HILBERT_BITS) - 1;
+        long d = 0;
+        for (int s = 1 << (HILBERT_BITS - 1); s > 0; s >>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = last - x;
+                    y = last - y;
+                }
+                int swap = x;
+                x = y;
+                y = swap;
+            }
+        }
+        return d;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * A tile set packed into one file, read through a single memory mapping instead of opening
+ * a file per tile. TileArchiveWriter packs an img/ directory into one.
+ *
+ * The file starts with a header of MAGIC, VERSION and the number of tiles, as big-endian
+ * ints, followed by an index entry per tile in increasing order of id: the id as an int,
+ * the offset of the tile's PNG from the start of the file as a long and its length as an
+ * int. The PNGs follow the index. Ids number the tile names, strings of the digits 1 to 4
+ * giving the quadrant taken at each depth, in base 5 (see id). Every id of one depth is
+ * below every id of the next, so sorting by id stores the tiles level by level, each
+ * level in quadtree order, and the tiles of one raster, which are all of one depth and
+ * near each other, lie close together in the file.
+ *
+ * The index is checked against the size of the file when the archive is opened, so
+ * reading a tile is a binary search and a slice of the mapping that cannot go out of
+ * bounds. The mapping lives as long as the archive is reachable; an archive is never
+ * closed, since tiles may be read from it by requests still in flight after a reload.
+ */
+class TileArchive {
+    static final int MAGIC = 0x424d5441;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int ENTRY_SIZE = 16;
+    /** Tile names are at most this long, so that their ids fit in an int. */
+    static final int MAX_DEPTH = 13;
+
+    private final String path;
+    private final ByteBuffer buffer;
+    private final int[] ids;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private TileArchive(String path, ByteBuffer buffer, int[] ids, int[] offsets,
+                        int[] lengths) {
+        this.path = path;
+        this.buffer = buffer;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Maps the archive at path and reads its index.
+     * @throws IOException if the file cannot be read or is not a well-formed archive.
+     */
+    static TileArchive open(String path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to map.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = buffer.capacity();
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a tile archive.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(path + " has unknown version " + buffer.getInt(4) + ".");
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || count > (size - HEADER_SIZE) / ENTRY_SIZE) {
+            throw new IOException(path + " is truncated.");
+        }
+        long dataStart = HEADER_SIZE + (long) count * ENTRY_SIZE;
+        int[] ids = new int[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            ids[i] = buffer.getInt(entry);
+            long offset = buffer.getLong(entry + 4);
+            lengths[i] = buffer.getInt(entry + 12);
+            if (i > 0 && ids[i] <= ids[i - 1]) {
+                throw new IOException(path + " has an unsorted index.");
+            }
+            if (offset < dataStart || lengths[i] < 0 || offset + lengths[i] > size) {
+                throw new IOException(path + " is truncated.");
+            }
+            offsets[i] = (int) offset;
+        }
+        return new TileArchive(path, buffer, ids, offsets, lengths);
+    }
+
+    /** Returns the id of the tile with the given name, or -1 if it is not a tile name. */
+    static int id(String name) {
+        if (name.length() > MAX_DEPTH) {
+            return -1;
+        }
+        int id = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '1' || c > '4') {
+                return -1;
+            }
+            id = id * 5 + (c - '0');
+        }
+        return id;
+    }
+
+    /** Number of tiles in the archive. */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the PNG of the tile with the given name, as a read-only buffer of its own
+     * over the mapping, or null if the archive has no such tile.
+     */
+    ByteBuffer tile(String name) {
+        int id = id(name);
+        int i = id < 0 ? -1 : Arrays.binarySearch(ids, id);
+        if (i < 0) {
+            return null;
+        }
+        /* The casts keep this compiling for Java 8, where position and limit return Buffer. */
+        ByteBuffer png = buffer.duplicate();
+        ((Buffer) png).position(offsets[i]);
+        ((Buffer) png).limit(offsets[i] + lengths[i]);
+        return png.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a stream over the PNG of the tile with the given name for ImageIO to decode,
+     * which reads the mapping directly rather than copying the tile into a cache first.
+     * @throws IOException if the archive has no such tile.
+     */
+    ImageInputStream read(String name) throws IOException {
+        ByteBuffer png = tile(name);
+        if (png == null) {
+            throw new IOException("No tile " + name + " in " + path + ".");
+        }
+        return new BufferInputStream(png);
+    }
+
+    /** An ImageInputStream reading a buffer, positioned by streamPos rather than the buffer. */
+    private static class BufferInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            return buffer.get((int) streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bitOffset = 0;
+            int n = (int) Math.min(len, buffer.limit() - streamPos);
+            if (n <= 0) {
+                return len == 0 ? 0 : -1;
+            }
+            ByteBuffer from = buffer.duplicate();
+            ((Buffer) from).position((int) streamPos);
+            from.get(b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Packs a directory of tiles, such as img/, into a TileArchive that MapServer can serve
+ * from instead. Every file named after a tile, such as 1234.png, is packed; other files
+ * are skipped and listed.
+ * Usage: java TileArchiveWriter [directory] [archive]
+ * where directory defaults to img/ and archive to img.tiles, the archive MapServer looks
+ * for on startup.
+ */
+public class TileArchiveWriter {
+    private static final String SUFFIX = ".png";
+
+    public static void main(String[] args) throws IOException {
+        String dir = args.length > 0 ? args[0] : "img/";
+        String archive = args.length > 1 ? args[1] : "img.tiles";
+        long start = System.nanoTime();
+        int count = write(new File(dir), new File(archive));
+        System.out.printf("Packed %d tiles from %s into %s (%d bytes) in %d ms.%n", count, dir,
+                archive, new File(archive).length(), (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Writes every tile in dir to the archive file, replacing it if it exists.
+     * @return The number of tiles written.
+     * @throws IOException if dir cannot be listed or a tile cannot be read, or if the
+     * archive would be too large to map.
+     */
+    static int write(File dir, File archive) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException(dir + " is not a directory.");
+        }
+        /* Each key holds a tile's id above its position in files. */
+        long[] keys = new long[files.length];
+        int count = 0;
+        for (int i = 0; i < files.length; i++) {
+            String file = files[i].getName();
+            int id = file.endsWith(SUFFIX) && files[i].isFile()
+                    ? TileArchive.id(file.substring(0, file.length() - SUFFIX.length())) : -1;
+            if (id < 0) {
+                System.out.println("Skipping " + files[i] + ", which is not a tile.");
+                continue;
+            }
+            keys[count++] = (long) id << 32 | i;
+        }
+        keys = Arrays.copyOf(keys, count);
+        Arrays.sort(keys);
+
+        long offset = TileArchive.HEADER_SIZE + (long) count * TileArchive.ENTRY_SIZE;
+        long[] offsets = new long[count];
+        for (int k = 0; k < count; k++) {
+            offsets[k] = offset;
+            offset += files[(int) keys[k]].length();
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("The tiles in " + dir + " are too large to map as one file.");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(archive)))) {
+            out.writeInt(TileArchive.MAGIC);
+            out.writeInt(TileArchive.VERSION);
+            out.writeInt(count);
+            for (int k = 0; k < count; k++) {
+                out.writeInt((int) (keys[k] >>> 32));
+                out.writeLong(offsets[k]);
+                out.writeInt((int) files[(int) keys[k]].length());
+            }
+            for (int k = 0; k < count; k++) {
+                File tile = files[(int) keys[k]];
+                long length = Files.copy(tile.toPath(), out);
+                if (length != tile.length()) {
+                    throw new IOException(tile + " changed while it was packed.");
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -5,6 +5,7 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
 
 public class TrieST<Value> {
     //private static final int R = 128; // extended ASCII
@@ -76,6 +77,29 @@ public class TrieST<Value> {
         }
     }
 
+    /**
+     * Returns every prefix of a key in this trie with length at most maxLength,
+     * including the empty prefix.
+     */
+    public LinkedList<String> prefixes(int maxLength) {
+        LinkedList<String> list = new LinkedList<>();
+        prefixes(root, new StringBuilder(), maxLength, list);
+        return list;
+    }
+
+    private void prefixes(Node currRoot, StringBuilder prefix, int maxLength,
+                          LinkedList<String> list) {
+        list.addLast(prefix.toString());
+        if (prefix.length() == maxLength) {
+            return;
+        }
+        for (Map.Entry<Character, Node> e : currRoot.children.entrySet()) {
+            prefix.append(e.getKey());
+            prefixes(e.getValue(), prefix, maxLength, list);
+            prefix.setLength(prefix.length() - 1);
+        }
+    }
+
     public LinkedList<String> keysWithPrefix(String prefix) {
         LinkedList<String> list = new LinkedList<>();
         Node currRoot = get(root, prefix, 0);
@@ -0,0 +1,71 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Jetty thread pool that runs every task, and therefore every request handler, on its own
+ * virtual thread. Blocking in a handler then only parks a virtual thread instead of holding
+ * one of a fixed number of platform threads, so there is no pool size to tune.
+ * Virtual threads need Java 21 or later; see {@link #create()}.
+ */
+class VirtualThreadPool implements ThreadPool {
+    private final ExecutorService executor;
+    private final AtomicInteger running;
+
+    private VirtualThreadPool(ExecutorService executor) {
+        this.executor = executor;
+        this.running = new AtomicInteger();
+    }
+
+    /**
+     * Returns a new pool, or null if this JVM does not support virtual threads. The
+     * executor is looked up reflectively so that this class still compiles and runs on
+     * older JVMs, where the server falls back to Jetty's default pool.
+     */
+    static VirtualThreadPool create() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new VirtualThreadPool(executor);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            running.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    /** Blocks until the pool has been shut down; Jetty's Server.join() waits here. */
+    @Override
+    public void join() throws InterruptedException {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int getThreads() {
+        return running.get();
+    }
+
+    /** Virtual threads are created on demand, so there are never idle ones. */
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}